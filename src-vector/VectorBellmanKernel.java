@@ -0,0 +1,76 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The BellmanKernel built on the Vector API: every lane holds one cell of a row,
+ * the four neighbours are loaded from the padded grid, the wall masks select the
+ * cell's own value for moves that bounce back, and the max over the actions and
+ * its argmax are computed for all the lanes at once. The cells at the end of a row
+ * that don't fill a vector are computed by the scalar kernel.
+ * It only pays off on long runs over mazes whose values fit in the cache: the Vector API
+ * is slow until the JIT has compiled the sweep, and a large maze is bound by memory
+ * like the padded kernel, so "padded" is the default kernel.
+ * This class is kept out of src since it needs the jdk.incubator.vector module (JDK 16+).
+ * Compile it against the other classes and run with the module added, e.g.
+ * javac --add-modules jdk.incubator.vector -cp bin -d bin-vector src-vector/VectorBellmanKernel.java
+ * java --add-modules jdk.incubator.vector -cp bin:bin-vector value_iteration ... --kernel=vector
+ *
+ * @author Sai Chitti
+ *
+ */
+public class VectorBellmanKernel extends PaddedKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * The argmax lanes of a vector, before they are narrowed to the policy bytes.
+     */
+    private final ThreadLocal<double[]> lanes = ThreadLocal.withInitial(() -> new double[SPECIES.length()]);
+
+    public VectorBellmanKernel(Maze maze, double gamma) {
+        super(maze, gamma);
+    }
+
+    @Override
+    public void sweep(int from, int to, double[] updated, byte[] policy, double[] rowResiduals, int[] rowChanges) {
+        double[] index = lanes.get();
+        int bound = SPECIES.loopBound(cols);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+
+        for(int i = from; i < to; i++) {
+            double residual = 0;
+            int changes = 0;
+            int row = (i + 1) * stride + 1;
+
+            for(int j = 0; j < bound; j += SPECIES.length()) {
+                int p = row + j;
+                DoubleVector v = DoubleVector.fromArray(SPECIES, current, p);
+                DoubleVector best = v.blend(DoubleVector.fromArray(SPECIES, current, p + offsets[0]), VectorMask.fromArray(SPECIES, open[0], p))
+                        .mul(gamma).add(-1);
+                DoubleVector argmax = zero;
+                for(int a = 1; a < 4; a++) {
+                    DoubleVector q = v.blend(DoubleVector.fromArray(SPECIES, current, p + offsets[a]), VectorMask.fromArray(SPECIES, open[a], p))
+                            .mul(gamma).add(-1);
+                    VectorMask<Double> better = q.compare(VectorOperators.GT, best);
+                    best = best.blend(q, better);
+                    argmax = argmax.blend(a, better);
+                }
+                VectorMask<Double> term = VectorMask.fromArray(SPECIES, terminal, p);
+                best = best.blend(zero, term);
+                argmax = argmax.blend(zero, term);
+
+                best.intoArray(next, p);
+                best.intoArray(updated, i * cols + j);
+                argmax.intoArray(index, 0);
+                for(int k = 0; k < index.length; k++)
+                    policy[i * cols + j + k] = (byte)index[k];
+                residual = Math.max(residual, best.sub(v).abs().reduceLanes(VectorOperators.MAX));
+                changes += best.compare(VectorOperators.NE, v).trueCount();
+            }
+            rowResiduals[i] = residual;
+            rowChanges[i] = changes;
+            sweepCells(i, bound, cols, updated, policy, rowResiduals, rowChanges);
+        }
+    }
+}
@@ -1,10 +1,6 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This class contains a bunch of auxiliary methods that the other classes use. 
@@ -14,115 +10,128 @@ import java.util.List;
  */
 public class AuxMethods {
     /**
-     * Given the file containing the maze, this method reads
-     * the file and puts the contents in the array.
+     * Given the file containing the maze, this method reads the file and returns the maze.
+     * '*' is a blocked state, 'S' the start state, 'G' a goal state and anything else an open state.
+     * See MazeReader. A generated maze given as "procedural:..." is generated whole instead; see ProceduralMazeSource.
      * @param filePath
-     * @param env this is true if the maze to modify comes from environment.java
      */
-    public static void getMaze(String filePath, String type) throws Exception {
-        BufferedReader br = new BufferedReader(new FileReader(filePath));
-        List<List<State>> temp_states = new ArrayList<>();
-        String line;
-        
-        while((line = br.readLine()) != null) {
-            List<State> row = new ArrayList<>();
-            
-            for(int i = 0; i < line.length(); i++) {
-                char ch = line.charAt(i);
-                State temp = null;
-                
-                if(ch == '*') {
-                    temp = new State(false, true, false); //Blocked state
-                }
-                else if(ch == 'S') {
-                    temp = new State(false, false, true); //Start state
-                }
-                else if(ch == 'G') {
-                    temp = new State(true, false, false); //Goal state
-                }
-                else {
-                    temp = new State(false, false, false);
-                }
-                row.add(temp);
-            }
-            
-            temp_states.add(row);
-        }
-        
-        br.close();
-        
-        int x = temp_states.size();
-        int y = temp_states.get(0).size();
-        
-        if(type.equals("env")) {
-            environment.env_maze = new State[x][y];
-            copy(temp_states, "env");
-        }
-        else if(type.equals("VI")) {
-            value_iteration.maze = new State[x][y];
-            copy(temp_states, "VI");
-        } else {
-            q_learning.maze = new State[x][y];
-            copy(temp_states, "Q");
+    public static Maze getMaze(String filePath) throws Exception {
+        if(filePath.startsWith(ProceduralMazeSource.PREFIX))
+            return ProceduralMazeSource.parse(filePath).toMaze();
+        return MazeReader.read(filePath);
+    }
+
+    /**
+     * Returns the value of the optional argument "--name=value" in args,
+     * or def if it is not given. Optional arguments follow the positional ones.
+     * @param args
+     * @param name
+     * @param def
+     */
+    public static String getOption(String[] args, String name, String def) {
+        String prefix = "--" + name + "=";
+        for(String arg : args) {
+            if(arg.startsWith(prefix))
+                return arg.substring(prefix.length());
         }
+        return def;
     }
 
     /**
-     * Copies the elements in the list to the array.
-     * @param temp_states
-     * @param env this is true if the maze to modify comes from environment.java
+     * Returns the given text as a JSON string: in quotes, with quotes, backslashes and control characters escaped.
+     * @param text
      */
-    private static void copy(List<List<State>> temp_states, String type) {
-        for(int i = 0; i < temp_states.size(); i++) {
-            for(int j = 0; j < temp_states.get(0).size(); j++) {
-                if(type.equals("env"))
-                    environment.env_maze[i][j] = temp_states.get(i).get(j);
-                else if(type.equals("VI"))
-                    value_iteration.maze[i][j] = temp_states.get(i).get(j);
-                else
-                    q_learning.maze[i][j] = temp_states.get(i).get(j);
-            }
+    public static String jsonString(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2).append('"');
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if(c < 0x20)
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
         }
+        return sb.append('"').toString();
     }
 
     /**
-     * Copies the values in the given array to the maze.values.
-     * This method exists since the updates are being made
-     * synchronously at the end of the computations of all the V(S) values.
+     * Writes the value of every state of the maze to the writer, one state per line.
+     * @param writer
+     * @param maze
      * @param values
+     * @throws IOException
      */
-    public static void copy(double[][] values) {
-        for(int i = 0; i < values.length; i++) {
-            for(int j = 0; j < values[0].length; j++) {
-                value_iteration.maze[i][j].value = values[i][j];
+    public static void printValues(BufferedWriter writer, Maze maze, double[] values) throws IOException {
+        for(int i = 0; i < maze.rows; i++) {
+            for(int j = 0; j < maze.cols; j++) {
+                writer.write(i + " " + j + " " + values[maze.index(i, j)] + " \n");
             }
         }
     }
 
     /**
-     * Prints the maze.
+     * Writes the values, Q values and policy of the grid to the given files.
+     * @param args the command line arguments; with --format=binary the files are written
+     *   in the format of BinaryResults, otherwise as text
+     * @param valuesPath
+     * @param qvaluePath
+     * @param policyFile
+     * @param grid
+     * @param gamma the discount factor, recorded in binary files
      */
-    public static void printMaze(State[][] maze) {
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                System.out.println(i + " " + j + " " + maze[i][j].value + " ");
-            }
+    public static void writeResults(String[] args, String valuesPath, String qvaluePath, String policyFile, Grid grid, double gamma) throws Exception {
+        String format = getOption(args, "format", "text");
+        if(format.equals("binary")) {
+            BinaryResults.writeValues(valuesPath, grid, gamma);
+            BinaryResults.writeQValues(qvaluePath, grid, gamma);
+            BinaryResults.writePolicyFile(policyFile, grid, gamma);
+        }
+        else if(format.equals("text")) {
+            writeValues(valuesPath, grid);
+            writeQValues(qvaluePath, grid);
+            writePolicyFile(policyFile, grid);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown format " + format);
         }
-        System.out.println();
     }
 
     /**
      * Prints the Value function values of each state to a file.
      * @param filePath Path to the output file
      */
-    public static void writeValues(String valuesPath, State[][] maze) throws Exception {
+    public static void writeValues(String valuesPath, Grid grid) throws Exception {
+        writeValues(valuesPath, grid.maze, grid.values);
+    }
+
+    /**
+     * Prints the given Value function values of each state of the maze to a file.
+     * @param valuesPath Path to the output file
+     * @param maze
+     * @param values
+     */
+    public static void writeValues(String valuesPath, Maze maze, double[] values) throws Exception {
+        writeValues(valuesPath, maze, values, 0, maze.rows, 0);
+    }
+
+    /**
+     * Prints the given Value function values of the states in the rows [from, to) of the maze to a file.
+     * @param valuesPath Path to the output file
+     * @param maze
+     * @param values
+     * @param from
+     * @param to
+     * @param rowOffset added to the row numbers written, when the maze is a band of a larger one
+     */
+    public static void writeValues(String valuesPath, Maze maze, double[] values, int from, int to, int rowOffset) throws Exception {
         BufferedWriter writer = new BufferedWriter(new FileWriter(valuesPath));
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
-                if(s.isBlocked)
+        for(int i = from; i < to; i++) {
+            for(int j = 0; j < maze.cols; j++) {
+                int cell = maze.index(i, j);
+                if(maze.isBlocked(cell))
                     continue;
-                writer.write(i + " " + j + " " + s.value + "\n");
+                writer.write((i + rowOffset) + " " + j + " " + values[cell] + "\n");
             }
         }
         writer.close();
@@ -133,15 +142,40 @@ public class AuxMethods {
      * @param qvaluePath Path to the output file
      * @throws Exception
      */
-    public static void writeQValues(String qvaluePath, State[][] maze) throws Exception {
+    public static void writeQValues(String qvaluePath, Grid grid) throws Exception {
+        writeQValues(qvaluePath, grid.maze, grid.q);
+    }
+
+    /**
+     * Print the given q arrays of each state of the maze to a file.
+     * @param qvaluePath Path to the output file
+     * @param maze
+     * @param q four Q values per cell
+     * @throws Exception
+     */
+    public static void writeQValues(String qvaluePath, Maze maze, double[] q) throws Exception {
+        writeQValues(qvaluePath, maze, q, 0, maze.rows, 0);
+    }
+
+    /**
+     * Print the given q arrays of the states in the rows [from, to) of the maze to a file.
+     * @param qvaluePath Path to the output file
+     * @param maze
+     * @param q four Q values per cell
+     * @param from
+     * @param to
+     * @param rowOffset added to the row numbers written, when the maze is a band of a larger one
+     * @throws Exception
+     */
+    public static void writeQValues(String qvaluePath, Maze maze, double[] q, int from, int to, int rowOffset) throws Exception {
         BufferedWriter writer = new BufferedWriter(new FileWriter(qvaluePath));
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
-                if(s.isBlocked)
+        for(int i = from; i < to; i++) {
+            for(int j = 0; j < maze.cols; j++) {
+                int cell = maze.index(i, j);
+                if(maze.isBlocked(cell))
                     continue;
                 for(int a = 0; a < 4; a++)
-                    writer.write(i + " " + j + " " + a + " " + s.q[a] + "\n");
+                    writer.write((i + rowOffset) + " " + j + " " + a + " " + q[cell * 4 + a] + "\n");
             }
         }
         writer.close();
@@ -152,14 +186,39 @@ public class AuxMethods {
      * @param policyFile Path to the output file
      * @throws IOException
      */
-    public static void writePolicyFile(String policyFile, State[][] maze) throws IOException {
+    public static void writePolicyFile(String policyFile, Grid grid) throws IOException {
+        writePolicyFile(policyFile, grid.maze, grid.policy);
+    }
+
+    /**
+     * Prints the given policy values of each state of the maze to the output file.
+     * @param policyFile Path to the output file
+     * @param maze
+     * @param policy
+     * @throws IOException
+     */
+    public static void writePolicyFile(String policyFile, Maze maze, byte[] policy) throws IOException {
+        writePolicyFile(policyFile, maze, policy, 0, maze.rows, 0);
+    }
+
+    /**
+     * Prints the given policy values of the states in the rows [from, to) of the maze to the output file.
+     * @param policyFile Path to the output file
+     * @param maze
+     * @param policy
+     * @param from
+     * @param to
+     * @param rowOffset added to the row numbers written, when the maze is a band of a larger one
+     * @throws IOException
+     */
+    public static void writePolicyFile(String policyFile, Maze maze, byte[] policy, int from, int to, int rowOffset) throws IOException {
         BufferedWriter writer = new BufferedWriter(new FileWriter(policyFile));
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
-                if(s.isBlocked)
+        for(int i = from; i < to; i++) {
+            for(int j = 0; j < maze.cols; j++) {
+                int cell = maze.index(i, j);
+                if(maze.isBlocked(cell))
                     continue;
-                writer.write(i + " " + j + " " + (double)s.optimal_policy + "\n");
+                writer.write((i + rowOffset) + " " + j + " " + (double)policy[cell] + "\n");
             }
         }
         writer.close();
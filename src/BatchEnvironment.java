@@ -0,0 +1,150 @@
+/**
+ * This class simulates N agents exploring the same maze in lockstep.
+ * The positions of the agents and the outcome of their last step are kept
+ * in primitive arrays that are allocated once, so stepping all the agents
+ * allocates nothing. An agent whose episode ends (it reached a goal or took
+ * the maximum number of steps) is put back at the start state right away.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class BatchEnvironment {
+    /**
+     * The maze the agents explore.
+     */
+    private final Maze maze;
+    
+    /**
+     * The maximum length of an episode, 0 for no limit.
+     */
+    private final int episode_length;
+    
+    /**
+     * The current position of every agent, i.e. the state its next action is taken from.
+     */
+    final int[] curr_x, curr_y, cells;
+    
+    /**
+     * The number of steps every agent has taken in its current episode.
+     */
+    final int[] steps;
+    
+    /**
+     * The outcome of the last step of every agent: the state reached, the reward received,
+     * whether that state is a terminal/goal state and whether the episode was cut off at its maximum length.
+     * The state reached is reported even if the agent was put back at the start afterwards.
+     */
+    final int[] nextCells;
+    final double[] rewards;
+    final boolean[] terminal, truncated;
+    
+    /**
+     * The random number generator deciding whether a move slips, only used if moves in the maze can slip.
+     * Agents stepped by different threads must then be in different batches.
+     */
+    private final Rng rng;
+    
+    /**
+     * Constructor that puts all the agents at the start state of the maze.
+     * @param maze
+     * @param agents the number of agents
+     * @param episode_length the maximum length of an episode, 0 for no limit
+     */
+    public BatchEnvironment(Maze maze, int agents, int episode_length) {
+        this(maze, agents, episode_length, 0);
+    }
+    
+    /**
+     * Constructor that puts all the agents at the start state of the maze.
+     * @param maze
+     * @param agents the number of agents
+     * @param episode_length the maximum length of an episode, 0 for no limit
+     * @param seed the seed of the random number generator deciding whether a move slips
+     */
+    public BatchEnvironment(Maze maze, int agents, int episode_length, long seed) {
+        if(maze.start == -1)
+            throw new IllegalArgumentException("The maze has no start state.");
+        this.maze = maze;
+        this.episode_length = episode_length;
+        this.rng = new Rng(seed);
+        curr_x = new int[agents];
+        curr_y = new int[agents];
+        cells = new int[agents];
+        steps = new int[agents];
+        nextCells = new int[agents];
+        rewards = new double[agents];
+        terminal = new boolean[agents];
+        truncated = new boolean[agents];
+        
+        for(int i = 0; i < agents; i++)
+            reset(i);
+    }
+    
+    /**
+     * The number of agents.
+     */
+    public int size() {
+        return cells.length;
+    }
+    
+    /**
+     * Puts the given agent back at the start state.
+     * @param i
+     */
+    public void reset(int i) {
+        curr_x[i] = maze.start / maze.cols;
+        curr_y[i] = maze.start % maze.cols;
+        cells[i] = maze.start;
+        steps[i] = 0;
+    }
+    
+    /**
+     * Every agent takes the action at its index in actions.
+     * @param actions one of {0,1,2,3} per agent
+     */
+    public void step(int[] actions) {
+        step(actions, 0, cells.length);
+    }
+    
+    /**
+     * The agents [from, to) take the action at their index in actions.
+     * Disjoint ranges of agents can be stepped by different threads.
+     * @param actions one of {0,1,2,3} per agent
+     * @param from
+     * @param to
+     */
+    public void step(int[] actions, int from, int to) {
+        for(int i = from; i < to; i++) {
+            int cell = cells[i];
+            int a = actions[i];
+            
+            if(maze.isGoal(cell)) { //If the agent is already at a terminal/goal state, no other action needs to be taken.
+                rewards[i] = 0;
+                terminal[i] = true;
+            }
+            else {
+                int d = maze.direction(a, rng); //The direction actually moved in, if the move slips.
+                int next = maze.next(curr_x[i], curr_y[i], d);
+                rewards[i] = maze.reward(cell);
+                if(next != cell) {
+                    if(d == 0) //Direction = West
+                        curr_y[i]--;
+                    else if(d == 1) //Direction = North
+                        curr_x[i]--;
+                    else if(d == 2) //Direction = East
+                        curr_y[i]++;
+                    else //Direction = South
+                        curr_x[i]++;
+                    cells[i] = cell = next;
+                }
+                terminal[i] = maze.isGoal(cell);
+            }
+            nextCells[i] = cell;
+            steps[i]++;
+            truncated[i] = !terminal[i] && steps[i] == episode_length;
+            
+            if(terminal[i] || truncated[i])
+                reset(i);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs many solver jobs in one JVM, so the start-up and JIT warm-up are paid once.
+ * The jobs are listed in a manifest, one per line: "vi" or "q" followed by the arguments that
+ * value_iteration.main or q_learning.main would take. Blank lines and lines starting with '#' are skipped.
+ * Every job is loaded, solved and written in three stages: loading and writing run on a
+ * pool of I/O threads, solving on a bounded pool where every job is solved by one thread,
+ * so the I/O of some jobs overlaps the solving of others.
+ * The number of jobs in flight is bounded so that loaded mazes don't pile up in memory.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class BatchRunner {
+    /**
+     * One line of the manifest and what became of it.
+     */
+    static class Job {
+        int line;
+        String algorithm;
+        String[] args;
+        Maze maze;
+        Grid grid;
+        long loadNanos, solveNanos, writeNanos;
+        Throwable error;
+
+        /**
+         * The progress printed by the solver.
+         */
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Requires command line arguments.
+     * args[0] - Path to the manifest listing the jobs.
+     * Optional arguments:
+     * --threads=N - Number of threads solving mazes (defaults to the number of processors).
+     * --io-threads=N - Number of threads loading mazes and writing results (defaults to 4).
+     * --in-flight=N - Maximum number of jobs loaded but not yet written (defaults to twice the number of threads).
+     * --log=path - File to which the progress printed by every job is written, one block per job.
+     * --summary=path - File to which the outcome of every job is written, one JSON object per line.
+     * Sample manifest line - vi ./src/medium_maze.txt ./out/V.txt ./out/Q.txt ./out/P.txt 200 0.9 --epsilon=1e-9
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.parseInt(AuxMethods.getOption(args, "threads", "" + Runtime.getRuntime().availableProcessors()));
+        int ioThreads = Integer.parseInt(AuxMethods.getOption(args, "io-threads", "4"));
+        int inFlight = Integer.parseInt(AuxMethods.getOption(args, "in-flight", "" + 2 * threads));
+        String logPath = AuxMethods.getOption(args, "log", null);
+        String summaryPath = AuxMethods.getOption(args, "summary", null);
+
+        List<Job> jobs = readManifest(args[0]);
+        ForkJoinPool compute = new ForkJoinPool(threads);
+        final AtomicInteger ioThread = new AtomicInteger();
+        ExecutorService io = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, "batch-io-" + ioThread.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        final BufferedWriter log = logPath == null ? null : new BufferedWriter(new FileWriter(logPath));
+        final Semaphore slots = new Semaphore(inFlight);
+        List<CompletableFuture<Job>> futures = new ArrayList<>();
+
+        long startTime = System.nanoTime();
+        for(final Job job : jobs) {
+            slots.acquire();
+            futures.add(CompletableFuture.supplyAsync(() -> load(job), io)
+                    .thenApplyAsync(BatchRunner::solve, compute)
+                    .thenApplyAsync(BatchRunner::write, io)
+                    .handle((j, e) -> {
+                        if(e != null)
+                            job.error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        job.maze = null;
+                        job.grid = null;
+                        slots.release();
+                        finished(job, log);
+                        return job;
+                    }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        long wallTime = System.nanoTime() - startTime;
+        compute.shutdown();
+        io.shutdown();
+        if(log != null)
+            log.close();
+
+        if(!summarize(jobs, wallTime, summaryPath))
+            System.exit(1);
+    }
+
+    /**
+     * Reads the jobs listed in the manifest.
+     */
+    static List<Job> readManifest(String filePath) throws Exception {
+        List<Job> jobs = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new FileReader(filePath));
+        String line;
+        int number = 0;
+        while((line = br.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] parts = line.split("\\s+");
+            Job job = new Job();
+            job.line = number;
+            job.algorithm = parts[0];
+            job.args = new String[parts.length - 1];
+            System.arraycopy(parts, 1, job.args, 0, job.args.length);
+
+            int positional = job.algorithm.equals("vi") ? 6 : job.algorithm.equals("q") ? 9 : -1;
+            if(positional == -1)
+                throw new IllegalArgumentException("Line " + number + " of " + filePath + ": unknown algorithm " + job.algorithm);
+            if(job.args.length < positional || job.args[positional - 1].startsWith("--"))
+                throw new IllegalArgumentException("Line " + number + " of " + filePath + ": " + job.algorithm
+                        + " needs " + positional + " arguments before the options.");
+            jobs.add(job);
+        }
+        br.close();
+        return jobs;
+    }
+
+    private static Job load(Job job) {
+        long startTime = System.nanoTime();
+        try {
+            job.maze = AuxMethods.getMaze(job.args[0]);
+        }
+        catch(Exception e) {
+            throw new CompletionException(e);
+        }
+        job.loadNanos = System.nanoTime() - startTime;
+        return job;
+    }
+
+    /**
+     * Solves the maze of the job on the calling thread of the compute pool. Its sweeps don't fork row bands
+     * onto that pool, which would make one job's sweeps wait behind the other jobs' tasks.
+     */
+    private static Job solve(Job job) {
+        long startTime = System.nanoTime();
+        PrintStream out = new PrintStream(job.log, true);
+        try {
+            if(job.algorithm.equals("vi"))
+                job.grid = value_iteration.solve(job.maze, job.args, null, out).grid;
+            else
+                job.grid = q_learning.learn(job.maze, job.args, out).grid;
+        }
+        catch(Exception e) {
+            throw new CompletionException(e);
+        }
+        job.solveNanos = System.nanoTime() - startTime;
+        return job;
+    }
+
+    private static Job write(Job job) {
+        long startTime = System.nanoTime();
+        double gamma = Double.parseDouble(job.args[job.algorithm.equals("vi") ? 5 : 7]);
+        try {
+            AuxMethods.writeResults(job.args, job.args[1], job.args[2], job.args[3], job.grid, gamma);
+        }
+        catch(Exception e) {
+            throw new CompletionException(e);
+        }
+        job.writeNanos = System.nanoTime() - startTime;
+        return job;
+    }
+
+    /**
+     * Prints the outcome of a finished job and appends its progress to the log.
+     */
+    private static synchronized void finished(Job job, BufferedWriter log) {
+        System.out.println(String.format("%-4s line %-5d %-40s %s", job.algorithm, job.line, job.args[0],
+                job.error == null ? String.format("load %.1f ms, solve %.1f ms, write %.1f ms", job.loadNanos / 1e6, job.solveNanos / 1e6, job.writeNanos / 1e6)
+                        : "FAILED: " + job.error));
+        if(log == null)
+            return;
+        try {
+            log.write("== line " + job.line + ": " + job.algorithm + " " + String.join(" ", job.args) + "\n");
+            log.write(job.log.toString());
+        }
+        catch(Exception e) {
+            System.err.println("Couldn't write the log: " + e);
+        }
+    }
+
+    /**
+     * Prints the totals of the run and writes the outcome of every job to the summary file.
+     * @return true if every job succeeded
+     */
+    private static boolean summarize(List<Job> jobs, long wallTime, String summaryPath) throws Exception {
+        int failed = 0;
+        long load = 0, solve = 0, write = 0;
+        BufferedWriter summary = summaryPath == null ? null : new BufferedWriter(new FileWriter(summaryPath));
+        for(Job job : jobs) {
+            if(job.error != null)
+                failed++;
+            load += job.loadNanos;
+            solve += job.solveNanos;
+            write += job.writeNanos;
+            if(summary != null)
+                summary.write("{\"line\":" + job.line + ",\"algorithm\":" + AuxMethods.jsonString(job.algorithm) + ",\"maze\":" + AuxMethods.jsonString(job.args[0])
+                        + ",\"ok\":" + (job.error == null) + ",\"loadNanos\":" + job.loadNanos + ",\"solveNanos\":" + job.solveNanos
+                        + ",\"writeNanos\":" + job.writeNanos + (job.error == null ? "" : ",\"error\":" + AuxMethods.jsonString(job.error.toString())) + "}\n");
+        }
+        if(summary != null)
+            summary.close();
+
+        System.out.println("Jobs: " + jobs.size() + ", failed: " + failed);
+        System.out.println(String.format("Wall time %.1f ms; load %.1f ms, solve %.1f ms, write %.1f ms summed over the jobs",
+                wallTime / 1e6, load / 1e6, solve / 1e6, write / 1e6));
+        return failed == 0;
+    }
+}
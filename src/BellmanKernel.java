@@ -0,0 +1,58 @@
+/**
+ * A sweep of synchronous (Jacobi) Value Iteration over a padded copy of the values.
+ * The padded grid has a border of one cell around the maze, so the four neighbours of
+ * every cell can be read without bounds checks, and a mask per direction tells whether
+ * a move leads to the neighbour or bounces back to the cell itself.
+ * The values and policy computed are the same as those of value_iteration.computeQ.
+ *
+ * @author Sai Chitti
+ *
+ */
+public interface BellmanKernel {
+    /**
+     * Copies the values, indexed by cell, into the padded grid the next sweep reads.
+     * @param values
+     */
+    void load(double[] values);
+
+    /**
+     * Computes the new values and policy of the rows [from, to) from the padded grid.
+     * Only entries of these rows are written, so bands of rows can be computed in parallel.
+     * @param from
+     * @param to
+     * @param updated the new values, indexed by cell
+     * @param policy the optimal policy, indexed by cell
+     * @param rowResiduals the largest change of a value in each row
+     * @param rowChanges the number of changed values in each row
+     */
+    void sweep(int from, int to, double[] updated, byte[] policy, double[] rowResiduals, int[] rowChanges);
+
+    /**
+     * Makes the values computed by the last sweep the ones the next sweep reads.
+     */
+    void swap();
+
+    /**
+     * Creates the kernel for the given maze.
+     * "vector" loads VectorBellmanKernel, which is compiled separately against the jdk.incubator.vector module,
+     * and falls back to the scalar PaddedKernel if the class or the module is not available.
+     * @param name "padded" or "vector"
+     * @param maze
+     * @param gamma
+     * @return the kernel
+     */
+    static BellmanKernel create(String name, Maze maze, double gamma) {
+        if(name.equals("vector")) {
+            try {
+                return (BellmanKernel)Class.forName("VectorBellmanKernel").getConstructor(Maze.class, double.class).newInstance(maze, gamma);
+            }
+            catch(Exception | LinkageError e) {
+                System.err.println("The vector kernel is not available (" + e + "), using the padded scalar kernel.");
+            }
+        }
+        else if(!name.equals("padded")) {
+            throw new IllegalArgumentException("Unknown kernel " + name);
+        }
+        return new PaddedKernel(maze, gamma);
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * This class benchmarks the hot paths of the solvers on generated mazes:
+ * Value Iteration sweeps, environment steps in a Maze and in a maze generated on demand, Q-Learning episodes, loading a maze
+ * and writing the results. Every benchmark is warmed up before it is measured so
+ * that JIT compilation is not included, and the bytes allocated by the threads running it,
+ * the main thread and those of the pool, are recorded next to the time. Results can be saved and compared against a baseline
+ * to catch regressions.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Benchmarks {
+    /**
+     * One unit of work of a benchmark.
+     */
+    interface Op {
+        /**
+         * Runs the work once.
+         * @return the number of operations done, e.g. the number of steps taken
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * The measurement of one benchmark.
+     */
+    static class Result {
+        String name;
+        double nanosPerOp, bytesPerOp, opsPerSecond;
+    }
+
+    private static com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /**
+     * The ids of the live threads of the pool and the bytes allocated by those that ended. Guarded by the class.
+     */
+    private static final List<Long> poolThreads = new ArrayList<>();
+    private static long endedBytes;
+
+    /**
+     * Requires command line arguments.
+     * args[0] - Comma-separated side lengths of the square mazes to generate, e.g. 256,1024.
+     * args[1] - Comma-separated wall densities, e.g. 0.1,0.3; "perfect" generates a maze with the recursive backtracker.
+     * Optional arguments:
+     * --bench=B - Comma-separated benchmarks to run out of vi, converge, step, episode, load, write and query (defaults to all).
+     *   "converge" solves the maze from the lower bound to a residual of 1e-9 with the Jacobi and every Gauss-Seidel
+     *   sweep order, and with Jacobi sweeps from the multigrid start, one solve per op, and prints the number of sweeps each needed.
+     *   "query" looks up actions and paths of the solved policy through a PolicyService, paths from random starts
+     *   with a cache holding a tenth of the cells.
+     * --warmup=N - Number of warmup iterations (defaults to 3).
+     * --iterations=N - Number of measured iterations (defaults to 5).
+     * --threads=N - Number of threads sweeping the maze in the vi benchmark (defaults to 1).
+     * --out=path - File to which the results are written, one JSON object per line.
+     * --baseline=path - Results of an earlier run; the run fails if a benchmark got slower by more than the tolerance.
+     * --tolerance=T - Allowed slowdown against the baseline as a fraction (defaults to 0.1).
+     * Sample arguments - 256,1024 0.1,0.3,perfect --out=bench.jsonl
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String benches = "," + AuxMethods.getOption(args, "bench", "vi,converge,step,episode,load,write,query") + ",";
+        int warmup = Integer.parseInt(AuxMethods.getOption(args, "warmup", "3"));
+        int iterations = Integer.parseInt(AuxMethods.getOption(args, "iterations", "5"));
+        int threadCount = Integer.parseInt(AuxMethods.getOption(args, "threads", "1"));
+        ForkJoinPool pool = threadCount > 1 ? countedPool(threadCount) : null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<Result> results = new ArrayList<>();
+        File dir = File.createTempFile("maze-bench", "");
+        dir.delete();
+        dir.mkdir();
+
+        for(String sizeArg : args[0].split(",")) {
+            for(String density : args[1].split(",")) {
+                int size = Integer.parseInt(sizeArg);
+                final Maze maze = density.equals("perfect") ? MazeGenerator.backtracker(size, size, 42)
+                        : MazeGenerator.random(size, size, Double.parseDouble(density), 42);
+                String suffix = " size=" + size + " density=" + density;
+
+                if(benches.contains(",vi,")) {
+                    final value_iteration vi = new value_iteration(maze, 0.9, pool);
+                    results.add(measure("vi-sweep" + suffix, warmup, iterations, () -> {
+                        vi.computeVI();
+                        return 1;
+                    }));
+                }
+                if(benches.contains(",converge,")) {
+                    for(final String sweep : new String[] {"jacobi", "row-major", "alternating", "red-black", "multigrid"}) {
+                        final int[] sweeps = new int[1];
+                        final boolean jacobi = sweep.equals("jacobi") || sweep.equals("multigrid");
+                        results.add(measure("vi-converge-" + sweep + suffix, warmup, iterations, () -> {
+                            value_iteration vi = new value_iteration(maze, 0.9, pool);
+                            vi.setSweep(jacobi ? "jacobi" : "gauss-seidel", jacobi ? "row-major" : sweep, 64);
+                            if(sweep.equals("multigrid"))
+                                vi.startFromMultigrid(8);
+                            else
+                                vi.startFromLowerBound();
+                            sweeps[0] = 1;
+                            while(vi.computeVI() >= 1e-9)
+                                sweeps[0]++;
+                            return 1;
+                        }));
+                        System.out.println("  sweeps to converge: " + sweeps[0]);
+                    }
+                }
+                if(benches.contains(",query,")) {
+                    value_iteration vi = new value_iteration(maze, 0.9, pool);
+                    vi.solveFrontier("bfs", 0);
+                    final PolicyService service = new PolicyService(new PolicyIndex(vi.grid, 1), Math.max(1, maze.cells() / 10));
+                    final Rng rng = new Rng(1);
+                    results.add(measure("query-action" + suffix, warmup, iterations, () -> {
+                        for(int i = 0; i < 1000000; i++)
+                            service.action(rng.nextInt(size), rng.nextInt(size));
+                        return 1000000;
+                    }));
+                    results.add(measure("query-path" + suffix, warmup, iterations, () -> {
+                        for(int i = 0; i < 100000; i++)
+                            service.path(rng.nextInt(size), rng.nextInt(size));
+                        return 100000;
+                    }));
+                }
+                if(benches.contains(",step,")) {
+                    final environment env = new environment(maze);
+                    final Transition t = new Transition();
+                    final Rng rng = new Rng(1);
+                    results.add(measure("env-step" + suffix, warmup, iterations, () -> {
+                        for(int i = 0; i < 1000000; i++) {
+                            env.step(rng.nextInt(4), t);
+                            if(t.isTerminal)
+                                env.reset();
+                        }
+                        return 1000000;
+                    }));
+                    //The same steps in a maze of the same kind generated on demand, whose chunks don't all fit in the cache.
+                    final environment lazy = new environment(new ProceduralMazeSource(size, size, density.equals("perfect") ? "backtracker" : "random",
+                            density.equals("perfect") ? 0 : Double.parseDouble(density), 42, 64, 16));
+                    results.add(measure("env-step-procedural" + suffix, warmup, iterations, () -> {
+                        for(int i = 0; i < 1000000; i++) {
+                            lazy.step(rng.nextInt(4), t);
+                            if(t.isTerminal)
+                                lazy.reset();
+                        }
+                        return 1000000;
+                    }));
+                }
+                if(benches.contains(",episode,")) {
+                    final q_learning learner = new q_learning(maze, 0.9, 0.8, 0.05, 4 * size, 1);
+                    final environment env = new environment(maze);
+                    results.add(measure("q-episode" + suffix, warmup, iterations, () -> {
+                        for(int e = 0; e < 100; e++)
+                            learner.runEpisode(env);
+                        return 100;
+                    }));
+                }
+                if(benches.contains(",load,")) {
+                    final String mazePath = new File(dir, "maze.txt").getPath();
+                    MazeGenerator.writeMaze(mazePath, maze);
+                    results.add(measure("load" + suffix, warmup, iterations, () -> {
+                        AuxMethods.getMaze(mazePath);
+                        return 1;
+                    }));
+                }
+                if(benches.contains(",write,")) {
+                    final Grid grid = new Grid(maze);
+                    final String v = new File(dir, "values").getPath();
+                    final String q = new File(dir, "qvalues").getPath();
+                    final String p = new File(dir, "policy").getPath();
+                    results.add(measure("write-text" + suffix, warmup, iterations, () -> {
+                        AuxMethods.writeValues(v, grid);
+                        AuxMethods.writeQValues(q, grid);
+                        AuxMethods.writePolicyFile(p, grid);
+                        return 1;
+                    }));
+                    results.add(measure("write-binary" + suffix, warmup, iterations, () -> {
+                        BinaryResults.writeValues(v, grid, 0.9);
+                        BinaryResults.writeQValues(q, grid, 0.9);
+                        BinaryResults.writePolicyFile(p, grid, 0.9);
+                        return 1;
+                    }));
+                }
+            }
+        }
+        if(pool != null)
+            pool.shutdown();
+        for(File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+
+        String out = AuxMethods.getOption(args, "out", null);
+        if(out != null) {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(out));
+            for(Result r : results)
+                writer.write("{\"name\":\"" + r.name + "\",\"nanosPerOp\":" + r.nanosPerOp + ",\"bytesPerOp\":" + r.bytesPerOp
+                        + ",\"opsPerSecond\":" + r.opsPerSecond + "}\n");
+            writer.close();
+        }
+
+        String baseline = AuxMethods.getOption(args, "baseline", null);
+        if(baseline != null) {
+            double tolerance = Double.parseDouble(AuxMethods.getOption(args, "tolerance", "0.1"));
+            if(!compare(results, readNanos(baseline), tolerance))
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Returns a pool whose threads are counted by allocatedBytes, and which add what they allocated to it when they end.
+     * @param threadCount
+     */
+    private static ForkJoinPool countedPool(int threadCount) {
+        return new ForkJoinPool(threadCount, p -> new ForkJoinWorkerThread(p) {
+            @Override
+            protected void onStart() {
+                super.onStart();
+                synchronized(Benchmarks.class) {
+                    poolThreads.add(getId());
+                }
+            }
+
+            @Override
+            protected void onTermination(Throwable exception) {
+                synchronized(Benchmarks.class) {
+                    poolThreads.remove(Long.valueOf(getId()));
+                    endedBytes += Metrics.allocatedBytes();
+                }
+                super.onTermination(exception);
+            }
+        }, null, false);
+    }
+
+    /**
+     * The bytes allocated so far by the current thread and the threads of the pool, including those that ended,
+     * so the count never goes down.
+     */
+    private static synchronized long allocatedBytes() {
+        long total = Metrics.allocatedBytes() + endedBytes;
+        for(long id : poolThreads)
+            total += Math.max(0, Metrics.allocatedBytes(id));
+        return total;
+    }
+
+    /**
+     * Runs the op for the warmup iterations, then measures it over the given iterations.
+     * @param name
+     * @param warmup
+     * @param iterations
+     * @param op
+     * @return the result
+     */
+    static Result measure(String name, int warmup, int iterations, Op op) throws Exception {
+        for(int i = 0; i < warmup; i++)
+            op.run();
+
+        long ops = 0;
+        long bytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        for(int i = 0; i < iterations; i++)
+            ops += op.run();
+        long time = System.nanoTime() - startTime;
+        bytes = allocatedBytes() - bytes;
+
+        Result r = new Result();
+        r.name = name;
+        r.nanosPerOp = (double)time / ops;
+        r.bytesPerOp = (double)bytes / ops;
+        r.opsPerSecond = ops / (time / 1e9);
+        System.out.println(String.format("%-45s %14.1f ns/op %14.1f ops/s %12.1f B/op", name, r.nanosPerOp, r.opsPerSecond, r.bytesPerOp));
+        return r;
+    }
+
+    /**
+     * Reads the ns/op of every benchmark in a results file written with --out.
+     */
+    private static Map<String, Double> readNanos(String filePath) throws Exception {
+        Map<String, Double> nanos = new HashMap<>();
+        BufferedReader br = new BufferedReader(new FileReader(filePath));
+        String line;
+        while((line = br.readLine()) != null) {
+            int nameStart = line.indexOf("\"name\":\"") + 8;
+            String name = line.substring(nameStart, line.indexOf('"', nameStart));
+            int valueStart = line.indexOf("\"nanosPerOp\":") + 13;
+            nanos.put(name, Double.parseDouble(line.substring(valueStart, line.indexOf(',', valueStart))));
+        }
+        br.close();
+        return nanos;
+    }
+
+    /**
+     * Prints every benchmark that got slower than the baseline by more than the tolerance.
+     * @return true if there is no such benchmark
+     */
+    private static boolean compare(List<Result> results, Map<String, Double> baseline, double tolerance) {
+        boolean passed = true;
+        for(Result r : results) {
+            Double before = baseline.get(r.name);
+            if(before != null && r.nanosPerOp > before * (1 + tolerance)) {
+                System.out.println("REGRESSION " + r.name + ": " + before + " -> " + r.nanosPerOp + " ns/op");
+                passed = false;
+            }
+        }
+        return passed;
+    }
+}
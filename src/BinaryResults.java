@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes and reads the values, Q values or policy of a maze in a compact binary format.
+ * All numbers are little-endian. A file starts with a 32 byte header:
+ * magic "MAZR" (int 0x525A414D), version (int), kind (int: 1 values, 2 Q values, 3 policy),
+ * rows (int), cols (int), a reserved int and gamma (double).
+ * The blocked bitset of the maze follows as ceil(rows * cols / 64) longs, then the entries
+ * of every cell, blocked ones included, in cell index order: one double per cell for values,
+ * four doubles per cell for Q values and one byte per cell for the policy.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class BinaryResults {
+    static final int MAGIC = 0x525A414D;
+    static final int VERSION = 1;
+    static final int VALUES = 1, QVALUES = 2, POLICY = 3;
+    private static final int HEADER_BYTES = 32;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /**
+     * The contents of a results file. Only the array of its kind is set.
+     */
+    int kind, rows, cols;
+    double gamma;
+    Maze maze; //Holds the blocked cells; no goal or start state is recorded.
+    double[] values, q;
+    byte[] policy;
+
+    /**
+     * Requires command line arguments.
+     * Converts a binary results file to the text format written by AuxMethods.
+     * args[0] - Path to the binary results file.
+     * args[1] - Path to the text file to write.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        read(args[0]).writeText(args[1]);
+    }
+
+    /**
+     * Writes the results to the given file in the text format of AuxMethods.
+     * @param filePath
+     * @throws Exception
+     */
+    public void writeText(String filePath) throws Exception {
+        if(kind == VALUES)
+            AuxMethods.writeValues(filePath, maze, values);
+        else if(kind == QVALUES)
+            AuxMethods.writeQValues(filePath, maze, q);
+        else
+            AuxMethods.writePolicyFile(filePath, maze, policy);
+    }
+
+    /**
+     * Write the values, Q values or policy of the grid to the given file in the binary format.
+     * @param filePath
+     * @param grid
+     * @param gamma the discount factor the grid was solved with
+     * @throws IOException
+     */
+    public static void writeValues(String filePath, Grid grid, double gamma) throws IOException {
+        write(filePath, VALUES, grid.maze, gamma, grid.values, null);
+    }
+
+    public static void writeQValues(String filePath, Grid grid, double gamma) throws IOException {
+        write(filePath, QVALUES, grid.maze, gamma, grid.q, null);
+    }
+
+    public static void writePolicyFile(String filePath, Grid grid, double gamma) throws IOException {
+        write(filePath, POLICY, grid.maze, gamma, null, grid.policy);
+    }
+
+    private static void write(String filePath, int kind, Maze maze, double gamma, double[] doubles, byte[] bytes) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(maze.rows).putInt(maze.cols).putInt(0).putDouble(gamma);
+
+            long[] blocked = new long[Maze.words(maze.cells())];
+            for(int cell = 0; cell < maze.cells(); cell++) {
+                if(maze.isBlocked(cell))
+                    Maze.set(blocked, cell);
+            }
+            for(int i = 0; i < blocked.length; ) {
+                int n = Math.min(blocked.length - i, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(blocked, i, n);
+                buffer.position(buffer.position() + n * 8);
+                i += n;
+                flush(channel, buffer);
+            }
+
+            if(doubles != null) {
+                putDoubles(channel, buffer, doubles);
+            }
+            else {
+                for(int i = 0; i < bytes.length; ) {
+                    int n = Math.min(bytes.length - i, buffer.remaining());
+                    buffer.put(bytes, i, n);
+                    i += n;
+                    flush(channel, buffer);
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the doubles through the buffer, writing it out whenever it is full. What the buffer held
+     * before is written out first; what is left of the doubles stays in it until the next flush.
+     * @param channel
+     * @param buffer a little-endian buffer
+     * @param doubles
+     */
+    static void putDoubles(FileChannel channel, ByteBuffer buffer, double[] doubles) throws IOException {
+        for(int i = 0; i < doubles.length; ) {
+            int n = Math.min(doubles.length - i, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(doubles, i, n);
+            buffer.position(buffer.position() + n * 8);
+            i += n;
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Reads the doubles from the file through the buffer.
+     * @param channel
+     * @param buffer a little-endian buffer
+     * @param doubles receives the doubles
+     * @param file what the file is, for the error if it ends too soon, e.g. "the checkpoint"
+     */
+    static void getDoubles(FileChannel channel, ByteBuffer buffer, double[] doubles, String file) throws IOException {
+        for(int i = 0; i < doubles.length; ) {
+            int n = Math.min(doubles.length - i, buffer.capacity() / 8);
+            fill(channel, buffer, n * 8, file);
+            buffer.asDoubleBuffer().get(doubles, i, n);
+            i += n;
+        }
+    }
+
+    /**
+     * Writes out what the buffer holds and clears it.
+     */
+    static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Reads the results in the given file.
+     * @param filePath
+     * @return the results
+     * @throws IOException
+     */
+    public static BinaryResults read(String filePath) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            fill(channel, buffer, HEADER_BYTES, "the results file");
+            if(buffer.getInt() != MAGIC)
+                throw new IllegalArgumentException(filePath + " is not a binary results file.");
+            int version = buffer.getInt();
+            if(version != VERSION)
+                throw new IllegalArgumentException(filePath + " has unsupported version " + version + ".");
+
+            BinaryResults results = new BinaryResults();
+            results.kind = buffer.getInt();
+            results.rows = buffer.getInt();
+            results.cols = buffer.getInt();
+            buffer.getInt();
+            results.gamma = buffer.getDouble();
+            int cells = results.rows * results.cols;
+
+            long[] blocked = new long[Maze.words(cells)];
+            for(int i = 0; i < blocked.length; ) {
+                int n = Math.min(blocked.length - i, BUFFER_BYTES / 8);
+                fill(channel, buffer, n * 8, "the results file");
+                buffer.asLongBuffer().get(blocked, i, n);
+                i += n;
+            }
+            results.maze = new Maze(results.rows, results.cols, blocked, new long[blocked.length], -1);
+
+            if(results.kind == POLICY) {
+                results.policy = new byte[cells];
+                for(int i = 0; i < cells; ) {
+                    int n = Math.min(cells - i, BUFFER_BYTES);
+                    fill(channel, buffer, n, "the results file");
+                    buffer.get(results.policy, i, n);
+                    i += n;
+                }
+            }
+            else {
+                double[] doubles = new double[results.kind == QVALUES ? cells * 4 : cells];
+                getDoubles(channel, buffer, doubles, "the results file");
+                if(results.kind == QVALUES)
+                    results.q = doubles;
+                else
+                    results.values = doubles;
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Reads the next 'bytes' bytes of the file into the buffer and flips it for reading.
+     * @param file what the file is, for the error if it ends too soon, e.g. "the checkpoint"
+     */
+    static void fill(FileChannel channel, ByteBuffer buffer, int bytes, String file) throws IOException {
+        buffer.clear();
+        buffer.limit(bytes);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0)
+                throw new IOException("Unexpected end of " + file + ".");
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * This class is an indexed max-heap of maze cells keyed by a priority.
+ * A cell is in the heap at most once; pushing it again only raises its priority.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class CellHeap {
+    /**
+     * The cells in the heap, heap[0] having the highest priority.
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each cell in the heap, -1 if the cell is not in it.
+     */
+    private final int[] pos;
+
+    /**
+     * The priority of each cell in the heap.
+     */
+    private final double[] priority;
+
+    private int size;
+
+    CellHeap(int cells) {
+        heap = new int[cells];
+        pos = new int[cells];
+        priority = new double[cells];
+        Arrays.fill(pos, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds the cell with the given priority, or raises its priority if it is already in the heap.
+     * @param cell
+     * @param p
+     */
+    void push(int cell, double p) {
+        int i = pos[cell];
+        if(i == -1) {
+            i = size++;
+            heap[i] = cell;
+            pos[cell] = i;
+            priority[cell] = p;
+        }
+        else if(p > priority[cell]) {
+            priority[cell] = p;
+        }
+        else {
+            return;
+        }
+        up(i);
+    }
+
+    /**
+     * Removes and returns the cell with the highest priority.
+     */
+    int pop() {
+        int top = heap[0];
+        pos[top] = -1;
+        size--;
+        if(size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            down(0);
+        }
+        return top;
+    }
+
+    private void up(int i) {
+        int cell = heap[i];
+        double p = priority[cell];
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(priority[heap[parent]] >= p)
+                break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = cell;
+        pos[cell] = i;
+    }
+
+    private void down(int i) {
+        int cell = heap[i];
+        double p = priority[cell];
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && priority[heap[child + 1]] > priority[heap[child]])
+                child++;
+            if(priority[heap[child]] <= p)
+                break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = cell;
+        pos[cell] = i;
+    }
+}
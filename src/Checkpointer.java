@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class saves snapshots of a long training or solving run so that it can be resumed:
+ * the Q table or the values, the state of the random number generator and the number of
+ * episodes or epochs done. A snapshot is copied into one of two buffers and written by a
+ * background thread while the run goes on; the run only waits if both buffers are still
+ * being written. Every snapshot goes to a temporary file that then replaces the checkpoint,
+ * so a crash while writing leaves the previous checkpoint intact.
+ * All numbers are little-endian. A checkpoint starts with a 48 byte header:
+ * magic "MZCK" (int 0x4B435A4D), version (int), kind (int: 1 values, 2 Q values),
+ * rows (int), cols (int), a reserved int, gamma (double), the number of episodes or epochs
+ * done (long) and the state of the random number generator (long).
+ * The table follows, one double per cell for values and four per cell for Q values.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Checkpointer {
+    static final int MAGIC = 0x4B435A4D;
+    static final int VERSION = 1;
+    static final int VALUES = 1, QVALUES = 2;
+    private static final int HEADER_BYTES = 48;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /**
+     * The contents of a checkpoint.
+     */
+    static class Snapshot {
+        int kind, rows, cols;
+        double gamma;
+        long counter, rngState;
+        double[] table;
+    }
+
+    private final Path path, temp;
+    private final int kind;
+    private final Maze maze;
+    private final double gamma;
+
+    /**
+     * The two snapshot buffers, the write pending on each of them and the buffer to fill next.
+     */
+    private final double[][] buffers = new double[2][];
+    private final Future<?>[] pending = new Future<?>[2];
+    private int nextBuffer;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Constructor.
+     * @param filePath the file the checkpoints are written to
+     * @param kind VALUES or QVALUES
+     * @param maze the maze of the run
+     * @param gamma the discount factor of the run
+     */
+    public Checkpointer(String filePath, int kind, Maze maze, double gamma) {
+        this.path = Paths.get(filePath);
+        this.temp = Paths.get(filePath + ".tmp");
+        this.kind = kind;
+        this.maze = maze;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Creates the checkpointer selected by the optional command line argument --checkpoint=path.
+     * @return the checkpointer, null if no checkpoint was asked for
+     */
+    public static Checkpointer fromArgs(String[] args, int kind, Maze maze, double gamma) {
+        String path = AuxMethods.getOption(args, "checkpoint", null);
+        return path == null ? null : new Checkpointer(path, kind, maze, gamma);
+    }
+
+    /**
+     * Copies the table and hands it to the background writer. Waits only if the buffer
+     * it copies into is still being written; a failure of an earlier write is thrown here.
+     * @param table the Q values or values
+     * @param counter the number of episodes or epochs done
+     * @param rngState the state of the random number generator of the run
+     */
+    public void save(double[] table, final long counter, final long rngState) throws Exception {
+        final int b = nextBuffer;
+        nextBuffer ^= 1;
+        if(pending[b] != null)
+            pending[b].get();
+        if(buffers[b] == null)
+            buffers[b] = new double[table.length];
+        System.arraycopy(table, 0, buffers[b], 0, table.length);
+
+        final double[] snapshot = buffers[b];
+        pending[b] = writer.submit(() -> {
+            write(snapshot, counter, rngState);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the pending snapshots to be written and stops the writer.
+     */
+    public void close() throws Exception {
+        try {
+            for(Future<?> f : pending) {
+                if(f != null)
+                    f.get();
+            }
+        }
+        finally {
+            writer.shutdown();
+        }
+    }
+
+    private void write(double[] table, long counter, long rngState) throws IOException {
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(maze.rows).putInt(maze.cols).putInt(0)
+                    .putDouble(gamma).putLong(counter).putLong(rngState);
+            BinaryResults.putDoubles(channel, buffer, table);
+            BinaryResults.flush(channel, buffer); //The header is still in the buffer if the table is empty.
+            channel.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the checkpoint in the given file and checks that it belongs to a run of the given kind on the maze
+     * with the given discount factor.
+     * @param filePath
+     * @param kind VALUES or QVALUES
+     * @param maze
+     * @param gamma the discount factor of the run to resume
+     * @return the snapshot
+     * @throws IOException
+     */
+    public static Snapshot read(String filePath, int kind, Maze maze, double gamma) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            BinaryResults.fill(channel, buffer, HEADER_BYTES, "the checkpoint");
+            if(buffer.getInt() != MAGIC)
+                throw new IllegalArgumentException(filePath + " is not a checkpoint.");
+            int version = buffer.getInt();
+            if(version != VERSION)
+                throw new IllegalArgumentException(filePath + " has unsupported version " + version + ".");
+
+            Snapshot s = new Snapshot();
+            s.kind = buffer.getInt();
+            s.rows = buffer.getInt();
+            s.cols = buffer.getInt();
+            buffer.getInt();
+            s.gamma = buffer.getDouble();
+            s.counter = buffer.getLong();
+            s.rngState = buffer.getLong();
+            if(s.kind != kind)
+                throw new IllegalArgumentException(filePath + " holds " + (s.kind == QVALUES ? "Q values" : "values") + ".");
+            if(s.rows != maze.rows || s.cols != maze.cols)
+                throw new IllegalArgumentException(filePath + " is a checkpoint of a " + s.rows + "x" + s.cols + " maze.");
+            if(Double.compare(s.gamma, gamma) != 0)
+                throw new IllegalArgumentException(filePath + " is a checkpoint of a run with gamma " + s.gamma + ", not " + gamma + ".");
+
+            s.table = new double[kind == QVALUES ? maze.cells() * 4 : maze.cells()];
+            BinaryResults.getDoubles(channel, buffer, s.table, "the checkpoint");
+            return s;
+        }
+    }
+}
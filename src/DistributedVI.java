@@ -0,0 +1,320 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the Value Iteration algorithm on a maze too large for one heap by splitting
+ * it into horizontal strips, each solved by its own worker JVM. A worker only loads its strip
+ * and the row above and below it (the halo), which it needs to update the states of its first
+ * and last rows. After every sweep the workers send the largest change of their values and their
+ * first and last rows to the coordinator over a local socket; the coordinator decides whether to
+ * go on and sends every worker the rows of its neighbours, which become its new halo.
+ * As the halo always holds the values of the previous sweep, the values, Q values and policy
+ * are the same as those of a single Jacobi solver.
+ * The coordinator never loads the maze; it only reads its dimensions and joins the files the
+ * workers write for their strips.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class DistributedVI {
+    /**
+     * What the coordinator sends a worker after every sweep.
+     */
+    private static final int CONTINUE = 1, STOP = 0;
+
+    /**
+     * Requires command line arguments.
+     * args[0] - Path to the input file that contains the maze to solve.
+     * args[1] - Path to an output file to which the value function of each state is written.
+     * args[2] - Path to an output file to which the Q values are written.
+     * args[3] - Path to an output file to which the optimal policy of each state is written.
+     * args[4] - Number of epochs for which the Value Iteration algorithm needs to run.
+     * args[5] - Discount Factor (Gamma).
+     * Optional arguments:
+     * --workers=K - Number of worker processes, each owning a strip of rows (defaults to 2).
+     * --threads=N - Number of threads sweeping the strip of each worker (defaults to 1).
+     * --epsilon=E - Stop as soon as the Bellman residual of a sweep drops below E; args[4] is then the maximum number of epochs.
+     * --start=S - "zero" (default) or "lower", as for value_iteration.
+     * --report=L - "summary" (default) prints the residual, time and number of changed states after every epoch, "none" doesn't;
+     *   "full" is rejected since the coordinator never holds the values to dump.
+     * --trace=path - File to which the summary of each epoch is written, one JSON object per line.
+     * --worker-opts=O - JVM options of the workers, separated by commas, e.g. -Xmx8g.
+     * The output files are text files as written by value_iteration.
+     * Sample arguments - ./src/medium_maze.txt ./src/Values.txt ./src/QValues.txt ./src/Policy.txt 200 0.9 --workers=4
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if(AuxMethods.getOption(args, "worker", null) != null)
+            work(args);
+        else
+            coordinate(args);
+    }
+
+    /**
+     * Returns the first row of the given strip; strip k owns the rows [first(k), first(k + 1)).
+     */
+    static int first(int rows, int workers, int k) {
+        return (int)((long)rows * k / workers);
+    }
+
+    /**
+     * Spawns the workers, relays their rows after every sweep until the values converge
+     * or the epochs run out, then joins the files they wrote.
+     */
+    private static void coordinate(String[] args) throws Exception {
+        if(!AuxMethods.getOption(args, "format", "text").equals("text"))
+            throw new IllegalArgumentException("The distributed solver only writes text files.");
+        if(!AuxMethods.getOption(args, "solver", "sync").equals("sync") || !AuxMethods.getOption(args, "sweep", "jacobi").equals("jacobi"))
+            throw new IllegalArgumentException("The distributed solver only runs Jacobi sweeps, whose halo is the previous sweep.");
+        int epochs = Integer.parseInt(args[4]);
+        if(epochs < 1)
+            throw new IllegalArgumentException("The distributed solver runs at least one epoch.");
+        double epsilon = Double.parseDouble(AuxMethods.getOption(args, "epsilon", "-1"));
+        if(AuxMethods.getOption(args, "report", "summary").equals("full"))
+            throw new IllegalArgumentException("The coordinator never loads the maze, so it can't dump the values.");
+        int[] dimensions = MazeReader.dimensions(args[0]);
+        int rows = dimensions[0];
+        int cols = dimensions[1];
+        int workers = Math.min(rows, Integer.parseInt(AuxMethods.getOption(args, "workers", "2")));
+        if(workers < 1)
+            throw new IllegalArgumentException("There must be at least one worker.");
+        ProgressReporter reporter = LevelReporter.fromArgs(args);
+
+        ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(1000);
+        List<Process> processes = new ArrayList<>();
+        Socket[] sockets = new Socket[workers];
+        DataInputStream[] in = new DataInputStream[workers];
+        DataOutputStream[] out = new DataOutputStream[workers];
+        try {
+            for(int k = 0; k < workers; k++)
+                processes.add(spawn(args, server.getLocalPort(), k, workers));
+            for(int n = 0; n < workers; n++) {
+                Socket socket = accept(server, processes);
+                socket.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int k = input.readInt();
+                sockets[k] = socket;
+                in[k] = input;
+                out[k] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            //The first and last row of every strip, as sent after the last sweep.
+            double[][] top = new double[workers][cols];
+            double[][] bottom = new double[workers][cols];
+            long timeElapsed = 0;
+            for(int e = 1; e <= epochs; e++) {
+                long startTime = System.nanoTime();
+                double residual = 0;
+                long changed = 0;
+                for(int k = 0; k < workers; k++) {
+                    residual = Math.max(residual, in[k].readDouble());
+                    changed += in[k].readLong();
+                    if(k > 0)
+                        readRow(in[k], top[k]);
+                    if(k < workers - 1)
+                        readRow(in[k], bottom[k]);
+                }
+                boolean converged = residual < epsilon;
+                for(int k = 0; k < workers; k++) {
+                    out[k].writeInt(converged || e == epochs ? STOP : CONTINUE);
+                    if(k > 0)
+                        writeRow(out[k], bottom[k - 1]);
+                    if(k < workers - 1)
+                        writeRow(out[k], top[k + 1]);
+                    out[k].flush();
+                }
+                long endTime = System.nanoTime();
+                timeElapsed += (endTime - startTime);
+                reporter.epoch(e, residual, changed, endTime - startTime, null);
+                if(converged) {
+                    System.out.println("Converged after " + e + " epochs.");
+                    break;
+                }
+            }
+            reporter.close();
+            System.out.println("Total running time of VI = " + timeElapsed);
+
+            //Every worker reports once its files are written.
+            for(int k = 0; k < workers; k++)
+                in[k].readInt();
+            for(int f = 1; f <= 3; f++)
+                join(args[f], workers);
+        }
+        finally {
+            for(Socket socket : sockets) {
+                if(socket != null)
+                    socket.close();
+            }
+            server.close();
+            for(Process process : processes) {
+                if(!process.waitFor(10, TimeUnit.SECONDS))
+                    process.destroyForcibly();
+            }
+        }
+        for(Process process : processes) {
+            if(process.exitValue() != 0)
+                throw new IllegalStateException("A worker exited with status " + process.exitValue());
+        }
+    }
+
+    /**
+     * Waits for the next worker to connect, failing as soon as one of the workers has exited without connecting.
+     */
+    private static Socket accept(ServerSocket server, List<Process> processes) throws Exception {
+        while(true) {
+            try {
+                return server.accept();
+            }
+            catch(SocketTimeoutException e) {
+                for(Process process : processes) {
+                    if(!process.isAlive())
+                        throw new IllegalStateException("A worker exited with status " + process.exitValue() + " before connecting.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the JVM of worker k with the same class path and arguments as this one.
+     */
+    private static Process spawn(String[] args, int port, int k, int workers) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String opts = AuxMethods.getOption(args, "worker-opts", null);
+        if(opts != null)
+            command.addAll(Arrays.asList(opts.split(",")));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DistributedVI.class.getName());
+        command.addAll(Arrays.asList(args));
+        command.add("--worker=" + port);
+        command.add("--part=" + k);
+        command.add("--parts=" + workers);
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Solves the strip given by --part and --parts, exchanging its boundary rows through the coordinator
+     * listening on the port given by --worker, then writes the results of its rows to part files.
+     */
+    private static void work(String[] args) throws Exception {
+        int port = Integer.parseInt(AuxMethods.getOption(args, "worker", null));
+        int k = Integer.parseInt(AuxMethods.getOption(args, "part", null));
+        int workers = Integer.parseInt(AuxMethods.getOption(args, "parts", null));
+        double gamma = Double.parseDouble(args[5]);
+        int[] dimensions = MazeReader.dimensions(args[0]);
+        int rows = dimensions[0];
+        int cols = dimensions[1];
+
+        //The strip owns the rows [from, to) of the maze, which are the rows [from - lo, to - lo) of the strip.
+        int from = first(rows, workers, k);
+        int to = first(rows, workers, k + 1);
+        int lo = Math.max(0, from - 1);
+        int hi = Math.min(rows, to + 1);
+        Maze strip = MazeReader.readRows(args[0], lo, hi);
+        int threads = Integer.parseInt(AuxMethods.getOption(args, "threads", "1"));
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        value_iteration vi = new value_iteration(strip, gamma, pool);
+        String start = AuxMethods.getOption(args, "start", "zero");
+        if(start.equals("lower"))
+            vi.startFromLowerBound();
+        else if(!start.equals("zero"))
+            throw new IllegalArgumentException("Unknown start " + start);
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(k);
+        out.flush();
+
+        int status = CONTINUE;
+        while(status == CONTINUE) {
+            vi.computeVI();
+            //The values of the halo rows are wrong, as the strip ends there, so only the owned rows are reported.
+            out.writeDouble(vi.residual(from - lo, to - lo));
+            out.writeLong(vi.changed(from - lo, to - lo));
+            double[] values = vi.grid.values;
+            if(k > 0)
+                writeRow(out, values, (from - lo) * cols, cols);
+            if(k < workers - 1)
+                writeRow(out, values, (to - 1 - lo) * cols, cols);
+            out.flush();
+
+            status = in.readInt();
+            if(lo < from)
+                readRow(in, values, 0, cols);
+            if(hi > to)
+                readRow(in, values, (hi - 1 - lo) * cols, cols);
+        }
+        if(pool != null)
+            pool.shutdown();
+
+        vi.computeQ();
+        Grid grid = vi.grid;
+        AuxMethods.writeValues(part(args[1], k), strip, grid.values, from - lo, to - lo, lo);
+        AuxMethods.writeQValues(part(args[2], k), strip, grid.q, from - lo, to - lo, lo);
+        AuxMethods.writePolicyFile(part(args[3], k), strip, grid.policy, from - lo, to - lo, lo);
+        out.writeInt(0);
+        out.flush();
+        socket.close();
+    }
+
+    private static String part(String path, int k) {
+        return path + ".part" + k;
+    }
+
+    /**
+     * Concatenates the part files of the given output file in the order of the strips and deletes them.
+     */
+    private static void join(String path, int workers) throws Exception {
+        byte[] buffer = new byte[1 << 16];
+        try(OutputStream out = new FileOutputStream(path)) {
+            for(int k = 0; k < workers; k++) {
+                File file = new File(part(path, k));
+                try(InputStream in = new FileInputStream(file)) {
+                    int n;
+                    while((n = in.read(buffer)) > 0)
+                        out.write(buffer, 0, n);
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private static void readRow(DataInputStream in, double[] row) throws Exception {
+        readRow(in, row, 0, row.length);
+    }
+
+    private static void readRow(DataInputStream in, double[] values, int offset, int length) throws Exception {
+        for(int j = 0; j < length; j++)
+            values[offset + j] = in.readDouble();
+    }
+
+    private static void writeRow(DataOutputStream out, double[] row) throws Exception {
+        writeRow(out, row, 0, row.length);
+    }
+
+    private static void writeRow(DataOutputStream out, double[] values, int offset, int length) throws Exception {
+        for(int j = 0; j < length; j++)
+            out.writeDouble(values[offset + j]);
+    }
+}
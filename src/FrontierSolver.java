@@ -0,0 +1,288 @@
+import java.util.Arrays;
+
+/**
+ * This class contains solvers that compute the converged values of a maze
+ * without sweeping over every cell in every epoch.
+ * Prioritized sweeping starts every open cell at the value of a state that never
+ * reaches a goal (a lower bound of its true value) and only backs up cells whose
+ * value can still be raised, highest gain first, walking backwards from the goals.
+ * Since every transition is deterministic and costs -1, the values can also be
+ * computed exactly from the distance of every cell to its nearest goal (BFS).
+ * Both give the values that Value Iteration converges to.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class FrontierSolver {
+    /**
+     * The value that Value Iteration converges to for a state that can't reach a goal,
+     * i.e. the fixed point of V = -1 + gamma * V as it is reached in floating point from V = 0.
+     * @param gamma
+     * @return the value, -Infinity if gamma is not below 1
+     */
+    static double unreachableValue(double gamma) {
+        if(gamma >= 1)
+            return Double.NEGATIVE_INFINITY;
+        double v = 0;
+        for(int i = 0; i < 100000000; i++) {
+            double updated = -1 + gamma * v;
+            if(updated == v)
+                break;
+            v = updated;
+        }
+        return v;
+    }
+
+    /**
+     * Solves the maze by prioritized sweeping and leaves the values in grid.values.
+     * @param grid
+     * @param gamma
+     * @param threshold a cell is only backed up again if its value would rise by more than this
+     * @return the number of backups done
+     */
+    static long prioritizedSweeping(Grid grid, double gamma, double threshold) {
+        Maze maze = grid.maze;
+        requireSimple(maze);
+        double[] values = grid.values;
+        CellHeap frontier = new CellHeap(maze.cells());
+        double unreachable = unreachableValue(gamma);
+
+        for(int cell = 0; cell < maze.cells(); cell++)
+            values[cell] = (maze.isBlocked(cell) || maze.isGoal(cell)) ? 0 : unreachable;
+
+        for(int cell = 0; cell < maze.cells(); cell++) {
+            if(maze.isGoal(cell) && !maze.isBlocked(cell))
+                pushPredecessors(grid, cell, gamma, threshold, frontier);
+        }
+
+        return propagate(grid, gamma, threshold, frontier, null);
+    }
+
+    /**
+     * Throws an IllegalArgumentException unless every move in the maze is deterministic and costs 1,
+     * which all the solvers of this class rely on.
+     */
+    private static void requireSimple(Maze maze) {
+        if(!maze.isSimple())
+            throw new IllegalArgumentException("The frontier solvers need deterministic moves that cost 1.");
+    }
+
+    /**
+     * Backs up the cells on the frontier, highest gain first, until it is empty.
+     * Whenever the value of a cell rises, its predecessors are pushed onto the frontier.
+     * @param touched if not null, every cell whose value rose is marked in this bitset
+     * @return the number of backups done
+     */
+    private static long propagate(Grid grid, double gamma, double threshold, CellHeap frontier, long[] touched) {
+        double[] values = grid.values;
+        long backups = 0;
+        
+        while(!frontier.isEmpty()) {
+            int cell = frontier.pop();
+            double v = backup(grid, cell, gamma);
+            backups++;
+            if(v > values[cell]) {
+                values[cell] = v;
+                if(touched != null)
+                    Maze.set(touched, cell);
+                pushPredecessors(grid, cell, gamma, threshold, frontier);
+            }
+        }
+        return backups;
+    }
+
+    /**
+     * Re-solves a converged grid after its maze has been edited, touching only the affected region,
+     * and leaves the new values, Q values and policy in the grid, which is rebound to the edited maze.
+     * States whose greedy path went through a cell that got blocked or stopped being a goal are reset
+     * to the value of a state that never reaches a goal; every other state keeps its value, which is
+     * still reachable and so a lower bound. Prioritized sweeping seeded from the edited cells, the
+     * reset states and their neighbours then raises the values to those of a full solve.
+     * @param grid a grid holding the converged values, Q values and policy of its maze
+     * @param edited the edited maze, with the same dimensions
+     * @param cells the indices of the cells that differ between the two mazes
+     * @param gamma
+     * @return the number of states whose value was recomputed
+     */
+    static long resolve(Grid grid, Maze edited, int[] cells, double gamma) {
+        Maze old = grid.maze;
+        requireSimple(old);
+        requireSimple(edited);
+        if(edited.rows != old.rows || edited.cols != old.cols)
+            throw new IllegalArgumentException("The edited maze has different dimensions.");
+        double[] values = grid.values;
+        double unreachable = unreachableValue(gamma);
+        long[] touched = new long[Maze.words(old.cells())];
+        
+        //Walk backwards along the old policy from every cell whose edit can only lower values. The walk keeps
+        //its own visited cells, since the path from a lowered cell may run through a cell edited in another way.
+        long[] walked = new long[touched.length];
+        int[] stack = new int[16];
+        int top = 0;
+        for(int cell : cells) {
+            Maze.set(touched, cell);
+            boolean lowers = (edited.isBlocked(cell) && !old.isBlocked(cell)) || (old.isGoal(cell) && !edited.isGoal(cell));
+            if(lowers && (walked[cell >>> 6] & (1L << cell)) == 0) {
+                Maze.set(walked, cell);
+                if(top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = cell;
+            }
+        }
+        while(top > 0) {
+            int cell = stack[--top];
+            int x = cell / old.cols;
+            int y = cell % old.cols;
+            
+            for(int a = 0; a < 4; a++) {
+                int p = old.next(x, y, a);
+                if(p == cell || old.isGoal(p) || (walked[p >>> 6] & (1L << p)) != 0)
+                    continue;
+                if(old.next(p / old.cols, p % old.cols, grid.policy[p]) != cell)
+                    continue;
+                Maze.set(walked, p);
+                Maze.set(touched, p);
+                if(top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = p;
+            }
+        }
+        
+        grid.maze = edited;
+        CellHeap frontier = new CellHeap(edited.cells());
+        for(int w = 0; w < touched.length; w++) {
+            for(long bits = touched[w]; bits != 0; bits &= bits - 1) {
+                int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+                values[cell] = (edited.isBlocked(cell) || edited.isGoal(cell)) ? 0 : unreachable;
+            }
+        }
+        for(int w = 0; w < touched.length; w++) {
+            for(long bits = touched[w]; bits != 0; bits &= bits - 1) {
+                int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if(edited.isBlocked(cell))
+                    continue;
+                double gain = edited.isGoal(cell) ? 0 : backup(grid, cell, gamma) - values[cell];
+                if(gain > 0)
+                    frontier.push(cell, gain);
+                pushPredecessors(grid, cell, gamma, 0, frontier);
+            }
+        }
+        
+        propagate(grid, gamma, 0, frontier, touched);
+        
+        //The Q values of a state depend on the values of its neighbours, so refresh those too.
+        long solved = 0;
+        for(int w = 0; w < touched.length; w++) {
+            solved += Long.bitCount(touched[w]);
+            for(long bits = touched[w]; bits != 0; bits &= bits - 1) {
+                int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int x = cell / edited.cols;
+                int y = cell % edited.cols;
+                updateQ(grid, cell, gamma);
+                if(x > 0)
+                    updateQ(grid, cell - edited.cols, gamma);
+                if(x + 1 < edited.rows)
+                    updateQ(grid, cell + edited.cols, gamma);
+                if(y > 0)
+                    updateQ(grid, cell - 1, gamma);
+                if(y + 1 < edited.cols)
+                    updateQ(grid, cell + 1, gamma);
+            }
+        }
+        return solved;
+    }
+
+    /**
+     * Recomputes the Q values and optimal policy of one cell from the values of its neighbours,
+     * the same way value_iteration.computeQ does.
+     */
+    static void updateQ(Grid grid, int cell, double gamma) {
+        Maze maze = grid.maze;
+        int base = cell * 4;
+        int x = cell / maze.cols;
+        int y = cell % maze.cols;
+        boolean terminal = maze.isBlocked(cell) || maze.isGoal(cell);
+        
+        for(int a = 0; a < 4; a++)
+            grid.q[base + a] = terminal ? 0 : -1 + gamma * grid.values[maze.next(x, y, a)];
+        grid.policy[cell] = (byte)value_iteration.max(grid.q, base);
+    }
+
+    /**
+     * Pushes every state from which one step leads to the given cell onto the frontier
+     * if backing it up would raise its value by more than the threshold.
+     * Moves are deterministic, so these are the open, non-goal neighbours of the cell.
+     */
+    private static void pushPredecessors(Grid grid, int cell, double gamma, double threshold, CellHeap frontier) {
+        Maze maze = grid.maze;
+        int x = cell / maze.cols;
+        int y = cell % maze.cols;
+
+        for(int a = 0; a < 4; a++) {
+            int p = maze.next(x, y, a);
+            if(p == cell || maze.isGoal(p))
+                continue;
+            double gain = backup(grid, p, gamma) - grid.values[p];
+            if(gain > threshold)
+                frontier.push(p, gain);
+        }
+    }
+
+    /**
+     * Computes max over a of (-1 + gamma * V(s')) for the given cell.
+     */
+    private static double backup(Grid grid, int cell, double gamma) {
+        Maze maze = grid.maze;
+        int x = cell / maze.cols;
+        int y = cell % maze.cols;
+        double best = Double.NEGATIVE_INFINITY;
+
+        for(int a = 0; a < 4; a++)
+            best = Math.max(best, -1 + gamma * grid.values[maze.next(x, y, a)]);
+        return best;
+    }
+
+    /**
+     * Solves the maze exactly with a breadth-first search from all the goals
+     * and leaves the values in grid.values. A state d steps away from the nearest goal
+     * gets V(d) = -1 + gamma * V(d - 1) with V(0) = 0.
+     * @param grid
+     * @param gamma
+     * @return the number of states that can reach a goal
+     */
+    static int goalDistances(Grid grid, double gamma) {
+        Maze maze = grid.maze;
+        requireSimple(maze);
+        double[] values = grid.values;
+        int[] queue = new int[maze.cells()];
+        long[] visited = new long[Maze.words(maze.cells())];
+        int head = 0, tail = 0;
+        double unreachable = unreachableValue(gamma);
+
+        for(int cell = 0; cell < maze.cells(); cell++) {
+            values[cell] = maze.isBlocked(cell) ? 0 : unreachable;
+            if(maze.isGoal(cell) && !maze.isBlocked(cell)) {
+                values[cell] = 0;
+                Maze.set(visited, cell);
+                queue[tail++] = cell;
+            }
+        }
+
+        while(head < tail) {
+            int cell = queue[head++];
+            double v = -1 + gamma * values[cell];
+            int x = cell / maze.cols;
+            int y = cell % maze.cols;
+
+            for(int a = 0; a < 4; a++) {
+                int p = maze.next(x, y, a);
+                if((visited[p >>> 6] & (1L << p)) != 0)
+                    continue;
+                Maze.set(visited, p);
+                values[p] = v;
+                queue[tail++] = p;
+            }
+        }
+        return tail;
+    }
+}
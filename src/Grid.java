@@ -0,0 +1,54 @@
+import java.util.Arrays;
+
+/**
+ * This class holds the values, Q values and policy of every cell of a maze
+ * in flat primitive arrays (struct-of-arrays). A cell's entries are found
+ * at its index in the maze; its Q values sit at q[cell * 4 + a].
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Grid {
+    /**
+     * The layout of the maze these tables belong to.
+     * Not final since FrontierSolver.resolve rebinds the tables to an edited maze.
+     */
+    Maze maze;
+
+    /**
+     * The value function value of each cell.
+     * Not final since the synchronous sweeps of Value Iteration swap it with their second buffer.
+     */
+    double[] values;
+
+    /**
+     * The Q(s,a) values; four consecutive entries per cell for left(0), up(1), right(2) and down(3).
+     */
+    final double[] q;
+
+    /**
+     * The optimal policy to take at each cell, -1 until it is computed.
+     */
+    final byte[] policy;
+
+    Grid(Maze maze) {
+        this.maze = maze;
+        values = new double[maze.cells()];
+        q = new double[maze.cells() * 4];
+        policy = new byte[maze.cells()];
+        Arrays.fill(policy, (byte)-1); //Initializing to a dummy value.
+    }
+
+    /**
+     * Returns a State object holding a copy of the entries of cell (x, y).
+     * Changes made to the returned State are not written back to the grid.
+     */
+    State view(int x, int y) {
+        int cell = maze.index(x, y);
+        State s = new State(maze.isGoal(cell), maze.isBlocked(cell), maze.isStart(cell));
+        System.arraycopy(q, cell * 4, s.q, 0, 4);
+        s.value = values[cell];
+        s.optimal_policy = policy[cell];
+        return s;
+    }
+}
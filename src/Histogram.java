@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a concurrent histogram of non-negative long values with log-linear buckets,
+ * in the style of HdrHistogram: every power of two is split into 32 buckets, so a recorded
+ * value is known to within about 3% while the histogram takes a fixed, small amount of memory.
+ * Recording is lock-free and can be done by many threads at once.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records the value; negative values are recorded as 0.
+     * @param value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS)
+            return (int)value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * Returns the middle of the range of values that fall into the bucket.
+     */
+    private static long value(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long lower = (long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double)sum.sum() / n;
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values fall.
+     * @param fraction in [0, 1], e.g. 0.99 for the 99th percentile
+     */
+    public long percentile(double fraction) {
+        long n = count.sum();
+        if(n == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(fraction * n));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if(seen >= rank)
+                return Math.min(value(i), max());
+        }
+        return max();
+    }
+
+    /**
+     * Returns count, mean, max and the 50th, 90th and 99th percentiles as a JSON object.
+     */
+    public String toJson() {
+        return "{\"count\":" + count() + ",\"mean\":" + mean() + ",\"p50\":" + percentile(0.5) + ",\"p90\":" + percentile(0.9)
+                + ",\"p99\":" + percentile(0.99) + ",\"max\":" + max() + "}";
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class reports the progress of a solver at one of three levels:
+ * "none" prints nothing, "summary" prints the residual, time and number of changed
+ * states of every epoch, and "full" additionally dumps the value of every state
+ * every few epochs. Dumps to a file are written through a buffered writer on a background
+ * thread from a copy of the values, so the solver doesn't wait for the I/O. Dumps to the
+ * stream of the summaries are written by the solver thread between two summaries, so the
+ * two never interleave.
+ * The summary of each epoch can also be written to a trace file as JSON lines.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class LevelReporter implements ProgressReporter {
+    private final boolean summary, full;
+    
+    /**
+     * Dump the values every this many epochs.
+     */
+    private final int interval;
+    
+    /**
+     * The writer of the dumps and the thread writing them, null if the dumps go to the stream of the summaries.
+     */
+    private final BufferedWriter dump;
+    private final ExecutorService dumper;
+    private final boolean toFile;
+    
+    /**
+     * The dump being written, so that at most one copy of the values waits to be written.
+     */
+    private Future<?> pending;
+    
+    /**
+     * The writer of the trace file, null if there is none.
+     */
+    private final BufferedWriter trace;
+    
+    /**
+     * The stream the summaries are printed to.
+     */
+    private final PrintStream out;
+    
+    /**
+     * Constructor.
+     * @param level "none", "summary" or "full"
+     * @param dumpPath the file the dumps are written to, null to write them to the standard output
+     * @param interval dump the values every this many epochs
+     * @param tracePath the file the summary of each epoch is written to as JSON lines, null for none
+     */
+    public LevelReporter(String level, String dumpPath, int interval, String tracePath) throws Exception {
+        this(level, dumpPath, interval, tracePath, System.out);
+    }
+    
+    /**
+     * Constructor.
+     * @param level "none", "summary" or "full"
+     * @param dumpPath the file the dumps are written to, null to write them to out
+     * @param interval dump the values every this many epochs
+     * @param tracePath the file the summary of each epoch is written to as JSON lines, null for none
+     * @param out the stream the summaries are printed to
+     */
+    public LevelReporter(String level, String dumpPath, int interval, String tracePath, PrintStream out) throws Exception {
+        if(!level.equals("none") && !level.equals("summary") && !level.equals("full"))
+            throw new IllegalArgumentException("Unknown report level " + level);
+        this.out = out;
+        summary = !level.equals("none");
+        full = level.equals("full");
+        this.interval = Math.max(1, interval);
+        toFile = dumpPath != null;
+        if(full) {
+            dump = new BufferedWriter(dumpPath == null ? new OutputStreamWriter(out) : new FileWriter(dumpPath), 1 << 16);
+            dumper = toFile ? Executors.newSingleThreadExecutor() : null;
+        }
+        else {
+            dump = null;
+            dumper = null;
+        }
+        trace = tracePath == null ? null : new BufferedWriter(new FileWriter(tracePath));
+    }
+    
+    /**
+     * Creates the reporter selected by the optional command line arguments
+     * --report=L (defaults to "summary"), --dump=path, --dump-every=N (defaults to 1) and --trace=path.
+     * @param args
+     */
+    public static LevelReporter fromArgs(String[] args) throws Exception {
+        return fromArgs(args, System.out);
+    }
+    
+    /**
+     * Same as fromArgs(args), printing the summaries to the given stream.
+     * @param args
+     * @param out
+     */
+    public static LevelReporter fromArgs(String[] args, PrintStream out) throws Exception {
+        return new LevelReporter(AuxMethods.getOption(args, "report", "summary"), AuxMethods.getOption(args, "dump", null),
+                Integer.parseInt(AuxMethods.getOption(args, "dump-every", "1")), AuxMethods.getOption(args, "trace", null), out);
+    }
+    
+    @Override
+    public void epoch(int epoch, double residual, long changed, long nanos, Grid grid) throws Exception {
+        if(summary)
+            out.println("Epoch " + epoch + " done. Time elapsed: " + nanos + " Residual: " + residual + " Changed: " + changed);
+        if(trace != null)
+            trace.write("{\"epoch\":" + epoch + ",\"residual\":" + residual + ",\"changed\":" + changed + ",\"nanos\":" + nanos + "}\n");
+        
+        if(full && epoch % interval == 0 && !toFile) {
+            //Written here, after the summary of the epoch and before the next one.
+            dump.write("Epoch " + epoch + "\n");
+            AuxMethods.printValues(dump, grid.maze, grid.values);
+            dump.write("-------------------------\n");
+            dump.flush();
+        }
+        else if(full && epoch % interval == 0) {
+            if(pending != null)
+                pending.get();
+            final Maze maze = grid.maze;
+            final double[] values = grid.values.clone();
+            final int e = epoch;
+            pending = dumper.submit(() -> {
+                dump.write("Epoch " + e + "\n");
+                AuxMethods.printValues(dump, maze, values);
+                dump.write("-------------------------\n");
+                return null;
+            });
+        }
+    }
+    
+    @Override
+    public void close() throws Exception {
+        if(full) {
+            if(toFile) {
+                if(pending != null)
+                    pending.get();
+                dumper.shutdown();
+                dump.close();
+            }
+            else
+                dump.flush();
+        }
+        if(trace != null)
+            trace.close();
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * This class represents the layout of a maze in a compact form.
+ * Cells are addressed by a single index (cell = x * cols + y) and the
+ * blocked/goal flags are kept in bitsets, one bit per cell, instead of
+ * one State object per cell.
+ * By default every move is deterministic and costs 1. A maze can instead give each
+ * cell its own cost, paid for every move out of it, and let moves slip: the agent
+ * then moves in the intended direction with probability 1 - slip and in each of the
+ * two perpendicular directions with probability slip / 2.
+ * A Maze is the MazeSource of a maze held in memory.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Maze implements MazeSource {
+    /**
+     * The dimensions of the maze.
+     */
+    final int rows, cols;
+
+    /**
+     * Bitsets holding the blocked and the goal flags of each cell.
+     */
+    private final long[] blocked, goal;
+
+    /**
+     * The cell index of the start state(S), -1 if the maze has none.
+     */
+    final int start;
+
+    /**
+     * The probability that a move slips to one of the two perpendicular directions, 0 if moves are deterministic.
+     */
+    final double slip;
+
+    /**
+     * The cost of a move out of each cell, null if every move costs 1.
+     */
+    private final double[] cost;
+
+    Maze(int rows, int cols, long[] blocked, long[] goal, int start) {
+        this(rows, cols, blocked, goal, start, 0, null);
+    }
+
+    Maze(int rows, int cols, long[] blocked, long[] goal, int start, double slip, double[] cost) {
+        if((long)rows * cols * 4 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Maze of " + rows + "x" + cols + " cells is too large to address.");
+        if(!(slip >= 0 && slip <= 1))
+            throw new IllegalArgumentException("The slip probability must be in [0, 1].");
+        this.rows = rows;
+        this.cols = cols;
+        this.blocked = blocked;
+        this.goal = goal;
+        this.start = start;
+        this.slip = slip;
+        this.cost = cost;
+    }
+
+    /**
+     * Returns the number of long words a bitset over the given number of cells needs.
+     */
+    static int words(long cells) {
+        return (int)((cells + 63) >>> 6);
+    }
+
+    /**
+     * Sets the bit of the given cell in the bitset.
+     */
+    static void set(long[] bits, int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+
+    /**
+     * The total number of cells in the maze.
+     */
+    int cells() {
+        return rows * cols;
+    }
+
+    /**
+     * Returns the cell index of the coordinates (x, y).
+     */
+    public int index(int x, int y) {
+        return x * cols + y;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public boolean isBlocked(int x, int y) {
+        return x < 0 || y < 0 || x >= rows || y >= cols || isBlocked(index(x, y));
+    }
+
+    public boolean isGoal(int x, int y) {
+        return x >= 0 && y >= 0 && x < rows && y < cols && isGoal(index(x, y));
+    }
+
+    public double reward(int x, int y) {
+        return reward(index(x, y));
+    }
+
+    public double slip() {
+        return slip;
+    }
+
+    public int[] start() {
+        return start == -1 ? null : new int[] {start / cols, start % cols};
+    }
+
+    boolean isBlocked(int cell) {
+        return (blocked[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    boolean isGoal(int cell) {
+        return (goal[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    boolean isStart(int cell) {
+        return cell == start;
+    }
+
+    /**
+     * Returns true if every move is deterministic and costs 1, which the specialised solvers rely on.
+     */
+    boolean isSimple() {
+        return slip == 0 && cost == null;
+    }
+
+    /**
+     * The reward of a move out of the given cell, i.e. minus its cost.
+     */
+    double reward(int cell) {
+        return cost == null ? -1 : -cost[cell];
+    }
+
+    /**
+     * Returns a copy of the maze in which the given cells are replaced.
+     * The maze itself is not changed. Edited cells cost 1.
+     * @param cells the indices of the edited cells
+     * @param types the new type of each cell, as in a maze file: '*' blocked, 'S' start, 'G' goal, anything else open
+     * @return the edited maze
+     */
+    Maze edit(int[] cells, char[] types) {
+        long[] b = blocked.clone();
+        long[] g = goal.clone();
+        double[] c = cost == null ? null : cost.clone();
+        int s = start;
+        
+        for(int i = 0; i < cells.length; i++) {
+            int cell = cells[i];
+            b[cell >>> 6] &= ~(1L << cell);
+            g[cell >>> 6] &= ~(1L << cell);
+            if(cell == s)
+                s = -1;
+            if(c != null)
+                c[cell] = 1;
+            
+            if(types[i] == '*')
+                set(b, cell);
+            else if(types[i] == 'G')
+                set(g, cell);
+            else if(types[i] == 'S')
+                s = cell;
+        }
+        return new Maze(rows, cols, b, g, s, slip, c);
+    }
+
+    /**
+     * Given the coordinates of a state and the direction to head in,
+     * this method returns the index of the cell that's "adjacent" to it.
+     * "adjacent" -> Returns the current cell if the computed cell is blocked or
+     * is outside the maze. Otherwise returns the next cell in the direction specified by 'a'.
+     * @param x
+     * @param y
+     * @param a one of left(0), up(1), right(2) and down(3)
+     * @return index of the next cell
+     */
+    int next(int x, int y, int a) {
+        int cell = x * cols + y;
+
+        if(a == 0) { //Direction = West
+            if(y - 1 >= 0 && !isBlocked(cell - 1))
+                return cell - 1;
+        }
+        else if(a == 1) { //Direction = North
+            if(x - 1 >= 0 && !isBlocked(cell - cols))
+                return cell - cols;
+        }
+        else if(a == 2) { //Direction = East
+            if(y + 1 < cols && !isBlocked(cell + 1))
+                return cell + 1;
+        }
+        else { //Direction = South
+            if(x + 1 < rows && !isBlocked(cell + cols))
+                return cell + cols;
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+
+/**
+ * This class generates mazes programmatically, for benchmarks and tests.
+ * The start state is put in the top left corner and a goal state in the bottom right corner.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class MazeGenerator {
+    /**
+     * Generates a maze where every cell is blocked with the given probability.
+     * @param rows
+     * @param cols
+     * @param density the probability of a cell being blocked
+     * @param seed
+     */
+    public static Maze random(int rows, int cols, double density, long seed) {
+        long[] blocked = scatter(rows, cols, density, new Rng(seed));
+        return withCorners(rows, cols, blocked, new long[blocked.length]);
+    }
+
+    /**
+     * Returns the blocked bitset of a rows x cols maze where every cell is blocked with the given probability.
+     */
+    static long[] scatter(int rows, int cols, double density, Rng rng) {
+        long[] blocked = new long[Maze.words((long)rows * cols)];
+        for(int cell = 0; cell < rows * cols; cell++) {
+            if(rng.nextDouble() < density)
+                Maze.set(blocked, cell);
+        }
+        return blocked;
+    }
+
+    /**
+     * Generates a perfect maze (exactly one path between any two open cells) with the
+     * recursive backtracker, i.e. a randomized depth-first search carving passages between
+     * the cells at even coordinates. The walls are the cells in between.
+     * With odd dimensions the goal in the bottom right corner is one of these cells, so it can be reached from the start.
+     * @param rows
+     * @param cols
+     * @param seed
+     */
+    public static Maze backtracker(int rows, int cols, long seed) {
+        long[] blocked = carve(rows, cols, new Rng(seed));
+        return withCorners(rows, cols, blocked, new long[blocked.length]);
+    }
+
+    /**
+     * Returns the blocked bitset of a rows x cols perfect maze carved by the recursive backtracker
+     * between the cells at even coordinates, starting from the top left corner.
+     */
+    static long[] carve(int rows, int cols, Rng rng) {
+        long[] blocked = new long[Maze.words((long)rows * cols)];
+        long[] visited = new long[blocked.length];
+
+        for(int cell = 0; cell < rows * cols; cell++)
+            Maze.set(blocked, cell);
+
+        //The depth-first search runs over the cells at even coordinates, with an explicit stack.
+        int[] stack = new int[((rows + 1) / 2) * ((cols + 1) / 2)];
+        int top = 0;
+        stack[top++] = 0;
+        blocked[0] &= ~1L;
+        Maze.set(visited, 0);
+        int[] options = new int[4];
+
+        while(top > 0) {
+            int cell = stack[top - 1];
+            int x = cell / cols;
+            int y = cell % cols;
+            int count = 0;
+
+            for(int a = 0; a < 4; a++) {
+                int nx = x + (a == 1 ? -2 : a == 3 ? 2 : 0);
+                int ny = y + (a == 0 ? -2 : a == 2 ? 2 : 0);
+                if(nx < 0 || ny < 0 || nx >= rows || ny >= cols)
+                    continue;
+                int n = nx * cols + ny;
+                if((visited[n >>> 6] & (1L << n)) == 0)
+                    options[count++] = a;
+            }
+            if(count == 0) {
+                top--;
+                continue;
+            }
+            int a = options[rng.nextInt(count)];
+            int wall = (x + (a == 1 ? -1 : a == 3 ? 1 : 0)) * cols + y + (a == 0 ? -1 : a == 2 ? 1 : 0);
+            int n = (x + (a == 1 ? -2 : a == 3 ? 2 : 0)) * cols + y + (a == 0 ? -2 : a == 2 ? 2 : 0);
+            blocked[wall >>> 6] &= ~(1L << wall);
+            blocked[n >>> 6] &= ~(1L << n);
+            Maze.set(visited, n);
+            stack[top++] = n;
+        }
+        return blocked;
+    }
+
+    /**
+     * Opens the top left and bottom right corners and makes them the start and goal states.
+     * The bottom right corner is joined to the nearest open cell above it or to its left.
+     */
+    private static Maze withCorners(int rows, int cols, long[] blocked, long[] goal) {
+        int last = rows * cols - 1;
+        blocked[0] &= ~1L;
+        blocked[last >>> 6] &= ~(1L << last);
+        if(rows > 1 && cols > 1) {
+            int up = last - cols;
+            int left = last - 1;
+            if((blocked[up >>> 6] & (1L << up)) != 0 && (blocked[left >>> 6] & (1L << left)) != 0)
+                blocked[left >>> 6] &= ~(1L << left);
+        }
+        Maze.set(goal, last);
+        return new Maze(rows, cols, blocked, goal, 0);
+    }
+
+    /**
+     * Writes the maze to a file in the format read by AuxMethods.getMaze.
+     * Only the layout is written, without the slip probability or the costs.
+     * @param filePath
+     * @param maze
+     * @throws Exception
+     */
+    public static void writeMaze(String filePath, Maze maze) throws Exception {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
+        char[] row = new char[maze.cols];
+        for(int i = 0; i < maze.rows; i++) {
+            for(int j = 0; j < maze.cols; j++) {
+                int cell = maze.index(i, j);
+                if(maze.isBlocked(cell))
+                    row[j] = '*';
+                else if(maze.isStart(cell))
+                    row[j] = 'S';
+                else if(maze.isGoal(cell))
+                    row[j] = 'G';
+                else
+                    row[j] = '.';
+            }
+            writer.write(row);
+            writer.write('\n');
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class loads a maze file by memory-mapping it and parsing the characters
+ * straight into the bitsets of a Maze in a single pass, without building any
+ * intermediate rows. Files larger than 2 GB are mapped in chunks, and a band of
+ * rows can be read on its own without touching the rest of the file. A file can
+ * also be mapped as a MazeSource that reads each cell from the mapping when asked.
+ * '*' is a blocked state, 'S' the start state, 'G' a goal state and anything else an open state.
+ * Lines end with "\n" or "\r\n" and must all have the same length.
+ * A file whose first line is "#!maze" has a header: that line and the lines after it starting with "# ".
+ * "# slip p" lets every move slip to each perpendicular direction with probability p / 2, and
+ * "# legend c cost" makes the character c an open state whose moves cost the given amount
+ * instead of 1, so the maze itself is the cost layer. Other header lines are comments.
+ * Without the "#!maze" line there is no header and a '#' is an open state, as it always was.
+ * The first row of a maze with a header can't start with "# ". A file that starts with "# slip" or
+ * "# legend" but not with "#!maze" is rejected, since its header would be read as rows of the maze.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class MazeReader {
+    /**
+     * The largest part of the file mapped at once.
+     */
+    static long chunkSize = 1L << 30;
+
+    /**
+     * The header lines of a maze file.
+     */
+    private static class Header {
+        int end; //The offset of the first row of the maze.
+        double slip;
+        double[] legend; //The cost of every character in the legend, NaN for the others; null if there is no legend.
+    }
+
+    /**
+     * Reads the maze in the given file.
+     * @param filePath
+     * @return the maze
+     * @throws IOException
+     */
+    public static Maze read(String filePath) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            Header header = readHeader(channel, size, filePath);
+            int cols = firstLineLength(channel, header.end, size);
+            if(cols == 0)
+                throw new IllegalArgumentException(filePath + " doesn't contain a maze.");
+            return parse(channel, header.end, size, cols, header, 0, filePath);
+        }
+    }
+
+    /**
+     * Returns the number of rows and columns of the maze in the given file, reading only its first row.
+     * @param filePath
+     * @return {rows, cols}
+     * @throws IOException
+     */
+    public static int[] dimensions(String filePath) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            Header header = readHeader(channel, size, filePath);
+            int cols = firstLineLength(channel, header.end, size);
+            if(cols == 0)
+                throw new IllegalArgumentException(filePath + " doesn't contain a maze.");
+            long stride = rowStride(channel, header.end, size, cols);
+            return new int[] {(int)((size - header.end + stride - 1) / stride), cols};
+        }
+    }
+
+    /**
+     * Reads the rows [from, to) of the maze in the given file, mapping only the part of the file that holds them.
+     * Since all rows have the same length, the offset of a row is known without reading the rows before it.
+     * @param filePath
+     * @param from
+     * @param to
+     * @return a maze made of these rows; the start state is only set if it is among them
+     * @throws IOException
+     */
+    public static Maze readRows(String filePath, int from, int to) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            Header header = readHeader(channel, size, filePath);
+            int cols = firstLineLength(channel, header.end, size);
+            if(cols == 0)
+                throw new IllegalArgumentException(filePath + " doesn't contain a maze.");
+            long stride = rowStride(channel, header.end, size, cols);
+            long begin = header.end + from * stride;
+            long end = Math.min(size, header.end + to * stride);
+            if(from < 0 || from >= to || begin >= size)
+                throw new IllegalArgumentException("Rows [" + from + ", " + to + ") are not in " + filePath + ".");
+            return parse(channel, begin, end, cols, header, from, filePath);
+        }
+    }
+
+    /**
+     * Maps the maze in the given file as a MazeSource that reads each cell from the file when it is asked for,
+     * so only the pages of the file holding the cells visited are loaded. The rows are assumed to have the same
+     * length, which only read checks.
+     * @param filePath
+     * @return the maze
+     * @throws IOException
+     */
+    public static MazeSource map(String filePath) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            Header header = readHeader(channel, size, filePath);
+            int cols = firstLineLength(channel, header.end, size);
+            if(cols == 0)
+                throw new IllegalArgumentException(filePath + " doesn't contain a maze.");
+            long stride = rowStride(channel, header.end, size, cols);
+            int rows = (int)((size - header.end + stride - 1) / stride);
+            
+            //Every buffer holds whole rows, so a cell is never split between two of them.
+            int rowsPerBuffer = (int)Math.max(1, chunkSize / stride);
+            MappedByteBuffer[] buffers = new MappedByteBuffer[(rows + rowsPerBuffer - 1) / rowsPerBuffer];
+            for(int i = 0; i < buffers.length; i++) {
+                long offset = header.end + (long)i * rowsPerBuffer * stride;
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min((long)rowsPerBuffer * stride, size - offset));
+            }
+            return new Mapped(rows, cols, (int)stride, rowsPerBuffer, buffers, header);
+        }
+    }
+
+    /**
+     * A maze file mapped as a MazeSource.
+     */
+    private static class Mapped implements MazeSource {
+        private final int rows, cols, stride, rowsPerBuffer;
+        private final MappedByteBuffer[] buffers;
+        private final Header header;
+        private int[] start;
+        private boolean searched;
+
+        Mapped(int rows, int cols, int stride, int rowsPerBuffer, MappedByteBuffer[] buffers, Header header) {
+            this.rows = rows;
+            this.cols = cols;
+            this.stride = stride;
+            this.rowsPerBuffer = rowsPerBuffer;
+            this.buffers = buffers;
+            this.header = header;
+        }
+
+        private byte get(int x, int y) {
+            return buffers[x / rowsPerBuffer].get((x % rowsPerBuffer) * stride + y);
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public int cols() {
+            return cols;
+        }
+
+        public boolean isBlocked(int x, int y) {
+            return x < 0 || y < 0 || x >= rows || y >= cols || get(x, y) == '*';
+        }
+
+        public boolean isGoal(int x, int y) {
+            return x >= 0 && y >= 0 && x < rows && y < cols && get(x, y) == 'G';
+        }
+
+        public double reward(int x, int y) {
+            if(header.legend == null)
+                return -1;
+            byte ch = get(x, y);
+            return ch >= 0 && !Double.isNaN(header.legend[ch]) ? -header.legend[ch] : -1;
+        }
+
+        public double slip() {
+            return header.slip;
+        }
+
+        public int index(int x, int y) {
+            return (long)rows * cols * 4 > Integer.MAX_VALUE ? -1 : x * cols + y;
+        }
+
+        /**
+         * Finds the first 'S' of the file the first time it is asked for, which reads the whole file once.
+         */
+        public synchronized int[] start() {
+            if(!searched) {
+                searched = true;
+                for(int b = 0; b < buffers.length && start == null; b++) {
+                    MappedByteBuffer buffer = buffers[b];
+                    for(int i = 0; i < buffer.limit(); i++) {
+                        if(buffer.get(i) == 'S' && i % stride < cols) {
+                            start = new int[] {b * rowsPerBuffer + i / stride, i % stride};
+                            break;
+                        }
+                    }
+                }
+            }
+            return start == null ? null : start.clone();
+        }
+    }
+
+    /**
+     * The first line of a maze file with a header.
+     */
+    private static final String MARKER = "#!maze";
+
+    /**
+     * Reads the header lines at the start of the file, which must fit in the first chunk.
+     */
+    private static Header readHeader(FileChannel channel, long size, String filePath) throws IOException {
+        MappedByteBuffer first = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(chunkSize, size));
+        Header h = new Header();
+        if(!startsWith(first, 0, MARKER + "\n") && !startsWith(first, 0, MARKER + "\r\n")) {
+            if(startsWith(first, 0, "# slip") || startsWith(first, 0, "# legend"))
+                throw new IllegalArgumentException(filePath + " starts with a header line but not with \"" + MARKER + "\".");
+            return h;
+        }
+        h.end = MARKER.length() + (first.get(MARKER.length()) == '\r' ? 2 : 1);
+        while(startsWith(first, h.end, "# ")) {
+            int end = h.end;
+            while(end < first.limit() && first.get(end) != '\n')
+                end++;
+            byte[] line = new byte[end - h.end - 1];
+            for(int i = 0; i < line.length; i++)
+                line[i] = first.get(h.end + 1 + i);
+            String[] parts = new String(line, StandardCharsets.US_ASCII).trim().split("\\s+");
+            
+            if(parts[0].equals("slip") && parts.length == 2) {
+                h.slip = Double.parseDouble(parts[1]);
+            }
+            else if(parts[0].equals("legend") && parts.length == 3) {
+                char c = parts[1].charAt(0);
+                if(parts[1].length() != 1 || c == '*' || c == 'S' || c == 'G' || c == '#' || c > 127)
+                    throw new IllegalArgumentException("Can't give the character " + parts[1] + " a cost in " + filePath + ".");
+                if(h.legend == null) {
+                    h.legend = new double[128];
+                    Arrays.fill(h.legend, Double.NaN);
+                }
+                h.legend[c] = Double.parseDouble(parts[2]);
+            }
+            h.end = Math.min(end + 1, first.limit());
+        }
+        return h;
+    }
+
+    /**
+     * Whether the bytes of the buffer at the given offset are those of the text.
+     */
+    private static boolean startsWith(MappedByteBuffer buffer, int offset, String text) {
+        if(offset + text.length() > buffer.limit())
+            return false;
+        for(int i = 0; i < text.length(); i++) {
+            if(buffer.get(offset + i) != text.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the rows in the bytes [from, to) of the file into a maze.
+     * @param firstRow the number of the first of these rows in the file, for error messages
+     */
+    private static Maze parse(FileChannel channel, long from, long to, int cols, Header header, int firstRow, String filePath) throws IOException {
+        //Every row takes cols characters and a line break of at least one character, the last one maybe none.
+        long maxRows = (to - from + 1) / (cols + 1);
+        long maxCells = maxRows * cols;
+        if(maxCells * 4 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The maze in " + filePath + " is too large to address.");
+        long[] blocked = new long[Maze.words(maxCells)];
+        long[] goal = new long[Maze.words(maxCells)];
+        double[] legend = header.legend;
+        double[] cost = legend == null ? null : new double[(int)maxCells];
+        int start = -1;
+        
+        int x = 0; //The row being read.
+        int y = 0; //The number of cells read in this row.
+        for(long offset = from; offset < to; offset += chunkSize) {
+            long length = Math.min(chunkSize, to - offset);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            
+            for(int i = 0; i < length; i++) {
+                byte ch = buffer.get(i);
+                
+                if(ch == '\n') {
+                    if(y != cols)
+                        throw new IllegalArgumentException("Row " + (firstRow + x) + " of " + filePath + " has " + y + " cells, expected " + cols + ".");
+                    x++;
+                    y = 0;
+                    continue;
+                }
+                if(ch == '\r')
+                    continue;
+                if(y == cols)
+                    throw new IllegalArgumentException("Row " + (firstRow + x) + " of " + filePath + " has more than " + cols + " cells.");
+                
+                int cell = x * cols + y;
+                if(cost != null)
+                    cost[cell] = ch >= 0 && !Double.isNaN(legend[ch]) ? legend[ch] : 1;
+                if(ch == '*') {
+                    Maze.set(blocked, cell); //Blocked state
+                }
+                else if(ch == 'S') {
+                    if(start == -1)
+                        start = cell; //Start state
+                }
+                else if(ch == 'G') {
+                    Maze.set(goal, cell); //Goal state
+                }
+                y++;
+            }
+        }
+        if(y != 0) { //The last row isn't followed by a line break.
+            if(y != cols)
+                throw new IllegalArgumentException("Row " + (firstRow + x) + " of " + filePath + " has " + y + " cells, expected " + cols + ".");
+            x++;
+        }
+        return new Maze(x, cols, blocked, goal, start, header.slip, cost);
+    }
+
+    /**
+     * Returns the number of bytes of a row including its line break, from the first row at the given offset.
+     */
+    private static long rowStride(FileChannel channel, long from, long size, int cols) throws IOException {
+        if(from + cols >= size)
+            return cols + 1;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from + cols, 1);
+        return buffer.get(0) == '\r' ? cols + 2 : cols + 1;
+    }
+
+    /**
+     * Returns the number of cells in the first row of the file, which starts at the given offset.
+     */
+    private static int firstLineLength(FileChannel channel, long from, long size) throws IOException {
+        long length = 0;
+        for(long offset = from; offset < size; offset += chunkSize) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunkSize, size - offset));
+            while(buffer.hasRemaining()) {
+                byte ch = buffer.get();
+                if(ch == '\n')
+                    return (int)length;
+                if(ch != '\r')
+                    length++;
+            }
+        }
+        if(length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The first row of the maze is too long.");
+        return (int)length;
+    }
+}
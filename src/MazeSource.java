@@ -0,0 +1,74 @@
+/**
+ * This interface gives the cells of a maze by their coordinates, so that an environment can
+ * explore a maze that is never loaded whole: a Maze held in memory, a maze file read on demand
+ * (MazeReader.map) or a maze generated on demand (ProceduralMazeSource).
+ * Cells outside the maze are blocked.
+ *
+ * @author Sai Chitti
+ *
+ */
+public interface MazeSource {
+    int rows();
+
+    int cols();
+
+    boolean isBlocked(int x, int y);
+
+    boolean isGoal(int x, int y);
+
+    /**
+     * The reward of a move out of cell (x, y), i.e. minus its cost.
+     */
+    default double reward(int x, int y) {
+        return -1;
+    }
+
+    /**
+     * The probability that a move slips to one of the two perpendicular directions, 0 if moves are deterministic.
+     */
+    default double slip() {
+        return 0;
+    }
+
+    /**
+     * Returns the coordinates {x, y} of the start state, null if the maze has none.
+     */
+    int[] start();
+
+    /**
+     * Returns the cell index of the coordinates (x, y), -1 if the maze is too large to index its cells.
+     */
+    default int index(int x, int y) {
+        return -1;
+    }
+
+    /**
+     * Returns the direction the agent actually moves in when it heads in direction a:
+     * a itself or, if the move slips, one of the two perpendicular directions.
+     * The random number generator is only used if moves can slip.
+     * @param a one of left(0), up(1), right(2) and down(3)
+     * @param rng
+     */
+    default int direction(int a, Rng rng) {
+        double slip = slip();
+        if(slip == 0)
+            return a;
+        double u = rng.nextDouble();
+        if(u < 1 - slip)
+            return a;
+        return u < 1 - slip / 2 ? (a + 1) & 3 : (a + 3) & 3;
+    }
+
+    /**
+     * Opens the maze described by the given string: "procedural:..." for a generated maze
+     * (see ProceduralMazeSource.parse), otherwise the path of a maze file, which is mapped
+     * and read on demand rather than loaded.
+     * @param spec
+     * @throws Exception
+     */
+    static MazeSource open(String spec) throws Exception {
+        if(spec.startsWith(ProceduralMazeSource.PREFIX))
+            return ProceduralMazeSource.parse(spec);
+        return MazeReader.map(spec);
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the metrics of a training or solving run: environment steps,
+ * episode lengths, goal-reaching episodes, Q updates, changes of the greedy policy and sweep times. Counters are
+ * striped (LongAdder) and histograms lock-free, so many worker threads can record
+ * into one instance. Recording is done once per episode or sweep, not per step.
+ * Snapshots can be written as JSON lines at a fixed interval and read over JMX.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Metrics implements MetricsMXBean {
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder episodes = new LongAdder();
+    private final LongAdder goalEpisodes = new LongAdder();
+    private final LongAdder qUpdates = new LongAdder();
+    private final LongAdder policyChanges = new LongAdder();
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+    final Histogram episodeLengths = new Histogram();
+    final Histogram sweepNanos = new Histogram();
+
+    /**
+     * The time the metrics were created.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * The thread that created the metrics and the bytes it had allocated then, and the most it has been seen to
+     * have allocated since, which is kept once the thread has ended (guarded by this). Worker threads report their own bytes
+     * before they end, so threads that end never take their bytes out of the total.
+     */
+    private final long owner = Thread.currentThread().getId();
+    private final long startBytes = allocatedBytes(owner);
+    private long ownerBytes = startBytes;
+    private final LongAdder workerBytes = new LongAdder();
+
+    private ScheduledExecutorService exporter;
+    private BufferedWriter export;
+
+    /**
+     * Records a finished episode.
+     * @param length the number of steps taken
+     * @param reachedGoal true if the episode ended in a goal state
+     * @param updates the number of Q updates made
+     * @param changes the number of updates that changed the greedy action of their state
+     */
+    public void episode(int length, boolean reachedGoal, long updates, long changes) {
+        steps.add(length);
+        episodes.increment();
+        if(reachedGoal)
+            goalEpisodes.increment();
+        qUpdates.add(updates);
+        if(changes > 0)
+            policyChanges.add(changes);
+        episodeLengths.record(length);
+    }
+
+    /**
+     * Records a finished sweep of Value Iteration.
+     * @param nanos the time the sweep took
+     * @param changedStates the number of states whose value changed
+     */
+    public void sweep(long nanos, long changedStates) {
+        sweeps.increment();
+        changed.add(changedStates);
+        sweepNanos.record(nanos);
+    }
+
+    @Override
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    @Override
+    public long getEpisodes() {
+        return episodes.sum();
+    }
+
+    @Override
+    public long getGoalEpisodes() {
+        return goalEpisodes.sum();
+    }
+
+    @Override
+    public long getQUpdates() {
+        return qUpdates.sum();
+    }
+
+    @Override
+    public long getPolicyChanges() {
+        return policyChanges.sum();
+    }
+
+    @Override
+    public long getSweeps() {
+        return sweeps.sum();
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return steps.sum() / seconds();
+    }
+
+    @Override
+    public double getGoalFraction() {
+        long n = episodes.sum();
+        return n == 0 ? 0 : (double)goalEpisodes.sum() / n;
+    }
+
+    @Override
+    public double getEpisodeLengthMean() {
+        return episodeLengths.mean();
+    }
+
+    @Override
+    public long getEpisodeLengthP50() {
+        return episodeLengths.percentile(0.5);
+    }
+
+    @Override
+    public long getEpisodeLengthP99() {
+        return episodeLengths.percentile(0.99);
+    }
+
+    @Override
+    public long getSweepNanosP50() {
+        return sweepNanos.percentile(0.5);
+    }
+
+    @Override
+    public long getSweepNanosP99() {
+        return sweepNanos.percentile(0.99);
+    }
+
+    /**
+     * Records the bytes a worker thread allocated while working for the run, measured on the worker
+     * with allocatedBytes(), before it ends.
+     * @param bytes
+     */
+    public void workerAllocated(long bytes) {
+        if(bytes > 0)
+            workerBytes.add(bytes);
+    }
+
+    /**
+     * The bytes allocated per second by the thread that created the metrics and by the workers that reported theirs.
+     */
+    @Override
+    public synchronized double getAllocatedBytesPerSecond() {
+        long bytes = allocatedBytes(owner);
+        if(bytes > ownerBytes)
+            ownerBytes = bytes;
+        return (ownerBytes - startBytes + workerBytes.sum()) / seconds();
+    }
+
+    @Override
+    public String getSnapshot() {
+        return "{\"seconds\":" + seconds() + ",\"steps\":" + getSteps() + ",\"stepsPerSecond\":" + getStepsPerSecond()
+                + ",\"episodes\":" + getEpisodes() + ",\"goalFraction\":" + getGoalFraction() + ",\"qUpdates\":" + getQUpdates()
+                + ",\"policyChanges\":" + getPolicyChanges() + ",\"episodeLength\":" + episodeLengths.toJson()
+                + ",\"sweeps\":" + getSweeps() + ",\"changed\":" + changed.sum()
+                + ",\"sweepNanos\":" + sweepNanos.toJson() + ",\"allocatedBytesPerSecond\":" + getAllocatedBytesPerSecond() + "}";
+    }
+
+    private double seconds() {
+        return Math.max(1, System.nanoTime() - startTime) / 1e9;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as maze:type=Metrics,name=<name>.
+     * @param name
+     */
+    public void registerJmx(String name) throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("maze:type=Metrics,name=" + name));
+    }
+
+    /**
+     * Starts writing a snapshot to the given file every given number of milliseconds, one JSON object per line.
+     * @param filePath
+     * @param millis
+     */
+    public void exportTo(String filePath, long millis) throws Exception {
+        export = new BufferedWriter(new FileWriter(filePath));
+        exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-export");
+            t.setDaemon(true);
+            return t;
+        });
+        exporter.scheduleAtFixedRate(this::writeSnapshot, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void writeSnapshot() {
+        try {
+            export.write(getSnapshot());
+            export.write("\n");
+            export.flush();
+        }
+        catch(Exception e) {
+            System.err.println("Couldn't write the metrics: " + e);
+        }
+    }
+
+    /**
+     * Stops the periodic export after writing a last snapshot.
+     */
+    public void close() throws Exception {
+        if(exporter == null)
+            return;
+        exporter.shutdown();
+        exporter.awaitTermination(1, TimeUnit.MINUTES);
+        writeSnapshot();
+        export.close();
+    }
+
+    /**
+     * Starts the export and JMX registration selected by the optional command line arguments
+     * --metrics=path, --metrics-every=ms (defaults to 1000) and --jmx=name.
+     * @param args
+     */
+    public void exportFromArgs(String[] args) throws Exception {
+        String path = AuxMethods.getOption(args, "metrics", null);
+        if(path != null)
+            exportTo(path, Long.parseLong(AuxMethods.getOption(args, "metrics-every", "1000")));
+        String jmx = AuxMethods.getOption(args, "jmx", null);
+        if(jmx != null)
+            registerJmx(jmx);
+    }
+
+    /**
+     * The number of bytes allocated so far by the current thread.
+     */
+    static long allocatedBytes() {
+        return allocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The number of bytes allocated so far by the thread with the given id, -1 if it has ended.
+     * @param id
+     */
+    static long allocatedBytes(long id) {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(id);
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * The management interface through which a Metrics instance is exposed over JMX.
+ *
+ * @author Sai Chitti
+ *
+ */
+public interface MetricsMXBean {
+    long getSteps();
+    long getEpisodes();
+    long getGoalEpisodes();
+    long getQUpdates();
+    long getPolicyChanges();
+    long getSweeps();
+    double getStepsPerSecond();
+    double getGoalFraction();
+    double getEpisodeLengthMean();
+    long getEpisodeLengthP50();
+    long getEpisodeLengthP99();
+    long getSweepNanosP50();
+    long getSweepNanosP99();
+    double getAllocatedBytesPerSecond();
+    String getSnapshot();
+}
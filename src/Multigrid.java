@@ -0,0 +1,300 @@
+import java.util.Arrays;
+
+/**
+ * This class computes the starting values of Value Iteration on a coarse version of the maze,
+ * so that the sweeps on the full maze only have to confirm them instead of carrying the values
+ * out from the goals one state per sweep.
+ * The maze is cut into square blocks. Within a block, the open cells connected to each other form
+ * a component, and the cells of a component that are goals or next to an open cell of another
+ * block are its portals. The coarse maze is the graph of the portals: two portals of a component
+ * are joined by an edge of the length h of the shortest path between them inside the block, worth
+ * -(1 - gamma^h) / (1 - gamma) with the discount gamma^h, and two neighbouring portals of different
+ * blocks by an edge of length 1. Every path of the maze is a chain of such edges, so solving the
+ * coarse maze from the goals gives the exact number of steps from each portal to the nearest goal.
+ * Solving it in steps rather than in values keeps the arithmetic exact; the values follow from the
+ * steps as in FrontierSolver.goalDistances. The coarse maze is solved with Dijkstra's algorithm,
+ * the edges of a portal being found by a search inside its block when the portal is settled,
+ * so they are never stored.
+ * The values are then prolonged to every cell of a block from the portals of its component, and
+ * cells of components without a portal that reaches a goal get the value of a state that never does.
+ * Only mazes whose moves are deterministic and cost 1 can be coarsened this way.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Multigrid {
+    /**
+     * The number of steps of a cell that doesn't reach a goal.
+     */
+    static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * Sets the values of the maze to those computed on the coarse maze.
+     * @param maze
+     * @param gamma the discount factor
+     * @param block the side length of the blocks
+     * @param values receives the value of every cell; blocked cells get 0
+     * @return the number of portals of the coarse maze that reach a goal
+     */
+    static int prolong(Maze maze, double gamma, int block, double[] values) {
+        int[] steps = new int[maze.cells()];
+        int portals = distances(maze, block, steps);
+        int most = 0;
+        for(int cell = 0; cell < steps.length; cell++) {
+            if(steps[cell] != UNREACHED)
+                most = Math.max(most, steps[cell]);
+        }
+        //The value of a state d steps from a goal, computed as the sweeps compute it.
+        double[] table = new double[most + 1];
+        for(int d = 1; d <= most; d++)
+            table[d] = -1 + gamma * table[d - 1];
+        double unreachable = FrontierSolver.unreachableValue(gamma);
+
+        for(int cell = 0; cell < steps.length; cell++)
+            values[cell] = maze.isBlocked(cell) ? 0 : steps[cell] == UNREACHED ? unreachable : table[steps[cell]];
+        return portals;
+    }
+
+    /**
+     * Computes the number of steps from every cell of the maze to the nearest goal.
+     * @param maze
+     * @param block the side length of the blocks
+     * @param steps receives the steps of every cell, UNREACHED if it never gets to a goal
+     * @return the number of portals of the coarse maze that reach a goal
+     */
+    static int distances(Maze maze, int block, int[] steps) {
+        if(!maze.isSimple())
+            throw new IllegalArgumentException("The multigrid start needs deterministic moves that cost 1.");
+        if(block < 1)
+            throw new IllegalArgumentException("The block size must be positive.");
+        Arrays.fill(steps, UNREACHED);
+        int portals = solveCoarse(maze, block, steps);
+        prolongSteps(maze, block, steps);
+        return portals;
+    }
+
+    /**
+     * Solves the coarse maze: sets the number of steps from every portal to the nearest goal.
+     * @return the number of portals settled
+     */
+    private static int solveCoarse(Maze maze, int block, int[] steps) {
+        CellHeap heap = new CellHeap(maze.cells());
+        Search search = new Search(maze, block);
+        long[] portals = new long[Maze.words(maze.cells())];
+        for(int cell = 0; cell < maze.cells(); cell++) {
+            if(!maze.isBlocked(cell) && isPortal(maze, cell, block))
+                Maze.set(portals, cell);
+            if(maze.isGoal(cell) && !maze.isBlocked(cell)) {
+                steps[cell] = 0;
+                heap.push(cell, 0);
+            }
+        }
+
+        int settled = 0;
+        while(!heap.isEmpty()) {
+            int p = heap.pop();
+            int d = steps[p];
+            settled++;
+            int x = p / maze.cols;
+            int y = p % maze.cols;
+
+            //The edges to the other portals of its component.
+            search.from(p);
+            for(int i = 1; i < search.reached; i++) {
+                int q = search.cells[i];
+                int h = search.steps[i];
+                if(d + h < steps[q] && (portals[q >>> 6] & (1L << q)) != 0) {
+                    steps[q] = d + h;
+                    heap.push(q, -(d + h));
+                }
+            }
+            //The edges to the portals of the neighbouring blocks.
+            for(int a = 0; a < 4; a++) {
+                int q = maze.next(x, y, a);
+                if(q != p && !search.inBlock(q) && d + 1 < steps[q]) {
+                    steps[q] = d + 1;
+                    heap.push(q, -(d + 1));
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Sets the number of steps of every cell that is not a portal from the portals of its component.
+     * In every block, the portals are taken in order of their steps and merged with the queue of a
+     * breadth-first search from them, so the cells are reached in order of their steps.
+     */
+    private static void prolongSteps(Maze maze, int block, int[] steps) {
+        Search search = new Search(maze, block);
+        long[] portals = new long[4 * block + 16];
+
+        for(int x0 = 0; x0 < maze.rows; x0 += block) {
+            for(int y0 = 0; y0 < maze.cols; y0 += block) {
+                int x1 = Math.min(x0 + block, maze.rows);
+                int y1 = Math.min(y0 + block, maze.cols);
+                int n = 0;
+                for(int x = x0; x < x1; x++) {
+                    for(int y = y0; y < y1; y++) {
+                        int cell = maze.index(x, y);
+                        if(steps[cell] == UNREACHED || maze.isBlocked(cell))
+                            continue;
+                        if(n == portals.length)
+                            portals = Arrays.copyOf(portals, n * 2);
+                        portals[n++] = ((long)steps[cell] << 32) | cell;
+                    }
+                }
+                if(n == 0)
+                    continue;
+                Arrays.sort(portals, 0, n);
+                search.merge(portals, n, steps);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the cell is a goal or next to an open cell of another block.
+     */
+    private static boolean isPortal(Maze maze, int cell, int block) {
+        if(maze.isGoal(cell))
+            return true;
+        int x = cell / maze.cols;
+        int y = cell % maze.cols;
+        for(int a = 0; a < 4; a++) {
+            int q = maze.next(x, y, a);
+            if(q != cell && ((q / maze.cols) / block != x / block || (q % maze.cols) / block != y / block))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A breadth-first search that stays inside one block, reusing its arrays from one search to the next.
+     */
+    private static class Search {
+        final Maze maze;
+        final int block;
+
+        /**
+         * The cells reached by the last search in the order they were reached, and their steps from its start.
+         */
+        final int[] cells, steps;
+        int reached;
+
+        /**
+         * The search that last reached each cell of the block, indexed by the position of the cell in the block,
+         * so nothing has to be cleared between searches.
+         */
+        private final int[] mark;
+        private int stamp;
+
+        /**
+         * The first row and column of the block of the last search, its height and width
+         * and the width of a row of mark.
+         */
+        private int x0, y0, height, width;
+        private final int stride;
+
+        Search(Maze maze, int block) {
+            this.maze = maze;
+            this.block = block;
+            stride = Math.min(block, maze.cols);
+            int size = Math.min(block, maze.rows) * stride;
+            cells = new int[size];
+            steps = new int[size];
+            mark = new int[size];
+        }
+
+        /**
+         * Returns true if the cell is in the block of the last search.
+         */
+        boolean inBlock(int cell) {
+            int x = cell / maze.cols - x0;
+            int y = cell % maze.cols - y0;
+            return x >= 0 && x < height && y >= 0 && y < width;
+        }
+
+        private int local(int cell) {
+            return (cell / maze.cols - x0) * stride + (cell % maze.cols - y0);
+        }
+
+        private void enter(int cell) {
+            x0 = (cell / maze.cols) / block * block;
+            y0 = (cell % maze.cols) / block * block;
+            height = Math.min(block, maze.rows - x0);
+            width = Math.min(block, maze.cols - y0);
+            if(++stamp == 0) { //The stamps wrapped around.
+                Arrays.fill(mark, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * Reaches every cell of the component of the start cell, in order of its steps from it.
+         */
+        void from(int start) {
+            enter(start);
+            cells[0] = start;
+            steps[0] = 0;
+            mark[local(start)] = stamp;
+            reached = 1;
+            for(int head = 0; head < reached; head++)
+                expand(cells[head], steps[head] + 1, null);
+        }
+
+        /**
+         * Gives every cell of the block the fewest steps to a goal through one of the given portals:
+         * their steps plus the steps from them inside the block.
+         * @param portals the steps and cell of every cell of the block whose steps are known, sorted
+         * @param n the number of them
+         * @param global the steps of every cell of the maze, updated
+         */
+        void merge(long[] portals, int n, int[] global) {
+            enter((int)portals[0]);
+            for(int i = 0; i < n; i++)
+                mark[local((int)portals[i])] = stamp; //Their steps are already the fewest.
+            reached = 0;
+            int head = 0, next = 0;
+            while(next < n || head < reached) {
+                int cell, d;
+                if(next < n && (head == reached || (int)(portals[next] >>> 32) <= steps[head])) {
+                    cell = (int)portals[next];
+                    d = (int)(portals[next++] >>> 32);
+                }
+                else {
+                    cell = cells[head];
+                    d = steps[head++];
+                }
+                expand(cell, d + 1, global);
+            }
+        }
+
+        /**
+         * Adds the unmarked open neighbours of the cell in the block to the queue with the given steps.
+         * The neighbours are found from the position of the cell in the block, without dividing.
+         */
+        private void expand(int cell, int d, int[] global) {
+            int i = local(cell);
+            int x = i / stride;
+            int y = i - x * stride;
+            if(y > 0)
+                visit(cell - 1, i - 1, d, global);
+            if(x > 0)
+                visit(cell - maze.cols, i - stride, d, global);
+            if(y < width - 1)
+                visit(cell + 1, i + 1, d, global);
+            if(x < height - 1)
+                visit(cell + maze.cols, i + stride, d, global);
+        }
+
+        private void visit(int cell, int i, int d, int[] global) {
+            if(mark[i] == stamp || maze.isBlocked(cell))
+                return;
+            mark[i] = stamp;
+            cells[reached] = cell;
+            steps[reached++] = d;
+            if(global != null)
+                global[cell] = d;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * The scalar BellmanKernel. The padded grid is laid out row by row with
+ * cols + 2 cells per row; the value of cell (x, y) is at (x + 1) * (cols + 2) + y + 1.
+ * Subclasses can compute a part of a row with sweepCells, e.g. the tail of a vector loop.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class PaddedKernel implements BellmanKernel {
+    final int rows, cols;
+
+    /**
+     * The number of cells in a row of the padded grid.
+     */
+    final int stride;
+    final double gamma;
+
+    /**
+     * The padded values read by the current sweep and written by it.
+     */
+    double[] current, next;
+
+    /**
+     * For each direction, whether the move from a padded cell leads to its neighbour,
+     * in the order West, North, East, South of the actions.
+     */
+    final boolean[][] open = new boolean[4][];
+
+    /**
+     * The offset of the neighbour in each direction in the padded grid.
+     */
+    final int[] offsets;
+
+    /**
+     * Whether a padded cell is blocked or a goal; these keep the value 0.
+     */
+    final boolean[] terminal;
+
+    public PaddedKernel(Maze maze, double gamma) {
+        this.rows = maze.rows;
+        this.cols = maze.cols;
+        this.stride = cols + 2;
+        this.gamma = gamma;
+        this.offsets = new int[] {-1, -stride, 1, stride};
+        int size = (rows + 2) * stride;
+        current = new double[size];
+        next = new double[size];
+        terminal = new boolean[size];
+        for(int a = 0; a < 4; a++)
+            open[a] = new boolean[size];
+
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                int cell = maze.index(i, j);
+                int p = (i + 1) * stride + j + 1;
+                terminal[p] = maze.isBlocked(cell) || maze.isGoal(cell);
+                for(int a = 0; a < 4; a++)
+                    open[a][p] = maze.next(i, j, a) != cell;
+            }
+        }
+    }
+
+    @Override
+    public void load(double[] values) {
+        for(int i = 0; i < rows; i++)
+            System.arraycopy(values, i * cols, current, (i + 1) * stride + 1, cols);
+    }
+
+    @Override
+    public void sweep(int from, int to, double[] updated, byte[] policy, double[] rowResiduals, int[] rowChanges) {
+        for(int i = from; i < to; i++) {
+            rowResiduals[i] = 0;
+            rowChanges[i] = 0;
+            sweepCells(i, 0, cols, updated, policy, rowResiduals, rowChanges);
+        }
+    }
+
+    /**
+     * Computes the new values and policy of the cells [from, to) of row i and adds
+     * their largest change and number of changes to those recorded for the row.
+     */
+    void sweepCells(int i, int from, int to, double[] updated, byte[] policy, double[] rowResiduals, int[] rowChanges) {
+        double residual = rowResiduals[i];
+        int changes = rowChanges[i];
+
+        for(int j = from; j < to; j++) {
+            int p = (i + 1) * stride + j + 1;
+            int cell = i * cols + j;
+            double v = current[p];
+            double best = 0;
+            int index = 0;
+
+            if(!terminal[p]) {
+                best = -1 + gamma * (open[0][p] ? current[p + offsets[0]] : v);
+                for(int a = 1; a < 4; a++) {
+                    double q = -1 + gamma * (open[a][p] ? current[p + offsets[a]] : v);
+                    if(q > best) {
+                        best = q;
+                        index = a;
+                    }
+                }
+            }
+            next[p] = best;
+            updated[cell] = best;
+            policy[cell] = (byte)index;
+            residual = Math.max(residual, Math.abs(best - v));
+            if(best != v)
+                changes++;
+        }
+        rowResiduals[i] = residual;
+        rowChanges[i] = changes;
+    }
+
+    @Override
+    public void swap() {
+        double[] t = current;
+        current = next;
+        next = t;
+    }
+}
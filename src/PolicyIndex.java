@@ -0,0 +1,213 @@
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.util.Arrays;
+
+/**
+ * This class answers queries about a solved policy without the solver: the best action of a
+ * state, the state it leads to and the path it follows to a goal. For every cell it keeps the
+ * action of the policy, the cell that action leads to (the next hop) and the number of steps
+ * from the cell to a goal, all in flat arrays indexed like the maze, so every lookup is O(1)
+ * and a path is copied out hop by hop into an array of its exact length.
+ * An index never changes once built and can be read by any number of threads; a new policy
+ * gets a new index with a new version.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class PolicyIndex {
+    /**
+     * The number of steps of a cell from which the policy never reaches a goal.
+     */
+    static final int UNREACHABLE = -1;
+
+    final Maze maze;
+
+    /**
+     * The version of the policy, which tells the paths of different policies apart in caches.
+     */
+    final long version;
+
+    /**
+     * The action of the policy in each cell, -1 in blocked cells.
+     */
+    private final byte[] actions;
+
+    /**
+     * The cell the action of each cell leads to, -1 in blocked cells.
+     */
+    private final int[] next;
+
+    /**
+     * The number of steps from each cell to a goal following the policy, UNREACHABLE if it never gets there.
+     */
+    private final int[] steps;
+
+    /**
+     * Builds the index of the given policy.
+     * @param maze
+     * @param policy the action in each cell; entries of blocked cells are ignored
+     * @param version
+     */
+    PolicyIndex(Maze maze, byte[] policy, long version) {
+        this.maze = maze;
+        this.version = version;
+        int cells = maze.cells();
+        actions = new byte[cells];
+        next = new int[cells];
+        for(int cell = 0; cell < cells; cell++) {
+            int a = policy[cell];
+            if(maze.isBlocked(cell) || a < 0 || a > 3) {
+                actions[cell] = -1;
+                next[cell] = -1;
+            }
+            else {
+                actions[cell] = (byte)a;
+                next[cell] = maze.next(cell / maze.cols, cell % maze.cols, a);
+            }
+        }
+        steps = countSteps();
+    }
+
+    /**
+     * Builds the index of the policy of a solved grid.
+     */
+    PolicyIndex(Grid grid, long version) {
+        this(grid.maze, grid.policy, version);
+    }
+
+    /**
+     * Reads the policy of the maze from a file written by AuxMethods.writePolicyFile or BinaryResults.writePolicyFile.
+     * @param policyFile
+     * @param maze the solved maze, which tells where the goals are
+     * @param version
+     * @return the index of the policy
+     * @throws Exception
+     */
+    static PolicyIndex load(String policyFile, Maze maze, long version) throws Exception {
+        int magic;
+        try(DataInputStream in = new DataInputStream(new FileInputStream(policyFile))) {
+            magic = Integer.reverseBytes(in.readInt()); //Binary files are little-endian.
+        }
+        catch(java.io.EOFException e) {
+            magic = 0;
+        }
+
+        byte[] policy;
+        if(magic == BinaryResults.MAGIC) {
+            BinaryResults results = BinaryResults.read(policyFile);
+            if(results.kind != BinaryResults.POLICY || results.rows != maze.rows || results.cols != maze.cols)
+                throw new IllegalArgumentException(policyFile + " is not a policy of a " + maze.rows + "x" + maze.cols + " maze.");
+            policy = results.policy;
+        }
+        else {
+            policy = new byte[maze.cells()];
+            Arrays.fill(policy, (byte)-1);
+            BufferedReader br = new BufferedReader(new FileReader(policyFile));
+            String line;
+            while((line = br.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty())
+                    continue;
+                String[] parts = line.split("\\s+");
+                int x = Integer.parseInt(parts[0]);
+                int y = Integer.parseInt(parts[1]);
+                if(x < 0 || y < 0 || x >= maze.rows || y >= maze.cols)
+                    throw new IllegalArgumentException(policyFile + " has a state outside the maze: " + line);
+                policy[maze.index(x, y)] = (byte)Double.parseDouble(parts[2]);
+            }
+            br.close();
+        }
+        return new PolicyIndex(maze, policy, version);
+    }
+
+    /**
+     * Counts the steps from every cell to a goal. The next hops form a graph in which every cell
+     * has one successor, so following them from a cell either ends in a goal, in a blocked cell
+     * or in a cycle; every cell is walked once and gets its count when the walk unwinds.
+     */
+    private int[] countSteps() {
+        int cells = maze.cells();
+        final int unknown = -2, onStack = -3;
+        int[] steps = new int[cells];
+        Arrays.fill(steps, unknown);
+        int[] stack = new int[16];
+
+        for(int cell = 0; cell < cells; cell++) {
+            int n = 0;
+            int c = cell;
+            while(true) {
+                if(steps[c] != unknown)
+                    break;
+                if(maze.isGoal(c)) {
+                    steps[c] = 0;
+                    break;
+                }
+                if(next[c] < 0 || next[c] == c) {
+                    steps[c] = UNREACHABLE; //Blocked, or the action runs into a wall.
+                    break;
+                }
+                if(n == stack.length)
+                    stack = Arrays.copyOf(stack, n * 2);
+                stack[n++] = c;
+                steps[c] = onStack;
+                c = next[c];
+            }
+            //steps[c] is onStack if the walk closed a cycle, which never reaches a goal.
+            int count = steps[c] == onStack ? UNREACHABLE : steps[c];
+            while(n > 0) {
+                c = stack[--n];
+                count = count == UNREACHABLE ? UNREACHABLE : count + 1;
+                steps[c] = count;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Returns the action of the policy in cell (x, y), -1 if it is blocked.
+     */
+    int action(int x, int y) {
+        return actions[cell(x, y)];
+    }
+
+    /**
+     * Returns the cell the policy moves to from cell (x, y), -1 if it is blocked.
+     */
+    int nextHop(int x, int y) {
+        return next[cell(x, y)];
+    }
+
+    /**
+     * Returns the number of steps from cell (x, y) to a goal following the policy, UNREACHABLE if it never gets there.
+     */
+    int steps(int x, int y) {
+        return steps[cell(x, y)];
+    }
+
+    /**
+     * Returns the cells the policy goes through from cell (x, y) to a goal, both included,
+     * or an empty array if it never gets to one.
+     */
+    int[] path(int x, int y) {
+        int cell = cell(x, y);
+        int n = steps[cell];
+        if(n == UNREACHABLE)
+            return new int[0];
+        int[] path = new int[n + 1];
+        path[0] = cell;
+        for(int i = 1; i <= n; i++)
+            path[i] = next[path[i - 1]];
+        return path;
+    }
+
+    /**
+     * Returns the index of cell (x, y), checking that it is in the maze.
+     */
+    int cell(int x, int y) {
+        if(x < 0 || y < 0 || x >= maze.rows || y >= maze.cols)
+            throw new IllegalArgumentException("(" + x + ", " + y + ") is outside the " + maze.rows + "x" + maze.cols + " maze.");
+        return maze.index(x, y);
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves queries about a solved policy to many threads at once: the best action
+ * of a state and the path from a state to a goal, see PolicyIndex. The current index is held
+ * in an AtomicReference, so a new policy is published by swapping it in while queries go on;
+ * a query reads the reference once and answers from that index only.
+ * Paths are cached by start cell and version of the policy, so a new policy never gets the paths
+ * of the old one, which age out of the cache. Reading the cache takes no lock: entries are kept in
+ * a ConcurrentHashMap and stamped with the time of their last use, and when the cache is full one
+ * inserting thread evicts the least recently used eighth of it.
+ * The main method serves the queries over HTTP on the loopback interface.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class PolicyService {
+    /**
+     * A cached path and the time it was last used.
+     */
+    private static class Entry {
+        final int[] path;
+        volatile long used;
+
+        Entry(int[] path, long used) {
+            this.path = path;
+            this.used = used;
+        }
+    }
+
+    private final AtomicReference<PolicyIndex> index;
+    private final ConcurrentHashMap<Long, Entry> cache = new ConcurrentHashMap<>();
+    private final int capacity;
+
+    /**
+     * The clock of the cache, which only ticks when a path is added so that hits don't contend on it.
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+    final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     * The last version handed out by nextVersion.
+     */
+    private final AtomicLong versions;
+
+    /**
+     * Constructor.
+     * @param index the policy to serve
+     * @param capacity the number of paths cached
+     */
+    public PolicyService(PolicyIndex index, int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity of the path cache must be positive.");
+        this.index = new AtomicReference<>(index);
+        this.capacity = capacity;
+        this.versions = new AtomicLong(index.version);
+    }
+
+    /**
+     * Requires command line arguments.
+     * args[0] - Path to the input file that contains the solved maze.
+     * args[1] - Path to the policy file written by value_iteration or q_learning, in text or binary format.
+     * args[2] - Port to listen on, on the loopback interface.
+     * Optional arguments:
+     * --threads=N - Number of threads serving the requests (defaults to the number of processors).
+     * --cache=N - Number of paths cached (defaults to 100000).
+     * Requests:
+     * GET /action?x=X&y=Y - The action of the policy in (X, Y), the next state and the number of steps to a goal.
+     * GET /path?x=X&y=Y - The states the policy goes through from (X, Y) to a goal, empty if it never gets to one.
+     * POST /reload - Reads the policy file again and publishes it as a new version.
+     * GET /stats - The version served and the hits and misses of the path cache.
+     * The answers are JSON objects.
+     * Sample arguments - ./src/medium_maze.txt ./src/Policy.txt 8080 --cache=10000
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final Maze maze = AuxMethods.getMaze(args[0]);
+        final String policyFile = args[1];
+        int port = Integer.parseInt(args[2]);
+        int threads = Integer.parseInt(AuxMethods.getOption(args, "threads", "" + Runtime.getRuntime().availableProcessors()));
+        int capacity = Integer.parseInt(AuxMethods.getOption(args, "cache", "100000"));
+        final PolicyService service = new PolicyService(PolicyIndex.load(policyFile, maze, 1), capacity);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.createContext("/action", exchange -> serve(exchange, () -> {
+            Map<String, Integer> q = coordinates(exchange);
+            PolicyIndex idx = service.current();
+            int x = q.get("x"), y = q.get("y");
+            int next = idx.nextHop(x, y);
+            return "{\"version\":" + idx.version + ",\"x\":" + x + ",\"y\":" + y + ",\"action\":" + idx.action(x, y)
+                    + ",\"next\":" + (next < 0 ? "null" : "[" + next / maze.cols + "," + next % maze.cols + "]")
+                    + ",\"steps\":" + idx.steps(x, y) + "}";
+        }));
+        server.createContext("/path", exchange -> serve(exchange, () -> {
+            Map<String, Integer> q = coordinates(exchange);
+            PolicyIndex idx = service.current();
+            int[] path = service.path(idx, q.get("x"), q.get("y"));
+            StringBuilder sb = new StringBuilder(32 + path.length * 12);
+            sb.append("{\"version\":").append(idx.version).append(",\"steps\":").append(path.length - 1).append(",\"path\":[");
+            for(int i = 0; i < path.length; i++)
+                sb.append(i == 0 ? "[" : ",[").append(path[i] / maze.cols).append(',').append(path[i] % maze.cols).append(']');
+            return sb.append("]}").toString();
+        }));
+        server.createContext("/reload", exchange -> serve(exchange, () -> {
+            if(!exchange.getRequestMethod().equals("POST"))
+                throw new IllegalArgumentException("Reload with POST.");
+            PolicyIndex idx = PolicyIndex.load(policyFile, maze, service.nextVersion());
+            service.publish(idx);
+            return "{\"version\":" + idx.version + "}";
+        }));
+        server.createContext("/stats", exchange -> serve(exchange, () ->
+            "{\"version\":" + service.current().version + ",\"hits\":" + service.hits.sum() + ",\"misses\":" + service.misses.sum()
+                    + ",\"cached\":" + service.cache.size() + "}"));
+        server.start();
+        System.out.println("Serving the policy of " + args[0] + " on http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * The policy served now.
+     */
+    PolicyIndex current() {
+        return index.get();
+    }
+
+    /**
+     * Returns a version no other policy of this service has had, so concurrent reloads never publish the same one.
+     */
+    long nextVersion() {
+        return versions.incrementAndGet();
+    }
+
+    /**
+     * Publishes a new policy. Queries already running finish with the old one.
+     * @param next the index of the new policy, whose version must differ from that of the current one
+     */
+    void publish(PolicyIndex next) {
+        if(next.version == index.get().version)
+            throw new IllegalArgumentException("The new policy must have a new version.");
+        versions.accumulateAndGet(next.version, Math::max);
+        index.set(next);
+    }
+
+    /**
+     * Returns the action of the current policy in cell (x, y), -1 if it is blocked.
+     */
+    int action(int x, int y) {
+        return index.get().action(x, y);
+    }
+
+    /**
+     * Returns the cells the current policy goes through from cell (x, y) to a goal, see PolicyIndex.path.
+     * The array may be shared with other callers and must not be changed.
+     */
+    int[] path(int x, int y) {
+        return path(index.get(), x, y);
+    }
+
+    /**
+     * Returns the path from cell (x, y) of the given policy, from the cache if it is there.
+     */
+    int[] path(PolicyIndex idx, int x, int y) {
+        int cell = idx.cell(x, y);
+        Long key = (idx.version << 32) | cell;
+        Entry e = cache.get(key);
+        if(e != null) {
+            hits.increment();
+            //Only written when the clock moved, so readers of a hot entry don't keep writing its cache line.
+            long now = clock.get();
+            if(e.used != now)
+                e.used = now;
+            return e.path;
+        }
+        misses.increment();
+        int[] path = idx.path(x, y);
+        cache.put(key, new Entry(path, clock.incrementAndGet()));
+        if(cache.size() > capacity && evicting.tryLock()) {
+            try {
+                evict();
+            }
+            finally {
+                evicting.unlock();
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is at seven eighths of its capacity.
+     * Entries used while this runs may be removed too; they are only computed again.
+     */
+    private void evict() {
+        List<Map.Entry<Long, Entry>> entries = new ArrayList<>(cache.entrySet());
+        int excess = entries.size() - capacity + capacity / 8;
+        if(excess <= 0)
+            return;
+        entries.sort((a, b) -> Long.compare(a.getValue().used, b.getValue().used));
+        for(int i = 0; i < excess && i < entries.size(); i++)
+            cache.remove(entries.get(i).getKey(), entries.get(i).getValue());
+    }
+
+    /**
+     * The body of an answer, which may throw.
+     */
+    private interface Answer {
+        String get() throws Exception;
+    }
+
+    /**
+     * Sends the answer to a request, or a 400 with the message of an IllegalArgumentException.
+     */
+    private static void serve(HttpExchange exchange, Answer answer) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = answer.get();
+        }
+        catch(IllegalArgumentException e) {
+            status = 400;
+            body = "{\"error\":" + AuxMethods.jsonString(String.valueOf(e.getMessage())) + "}";
+        }
+        catch(Exception e) {
+            status = 500;
+            body = "{\"error\":" + AuxMethods.jsonString(e.toString()) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Parses the x and y parameters of the query string of a request.
+     */
+    private static Map<String, Integer> coordinates(HttpExchange exchange) {
+        Map<String, Integer> q = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query != null) {
+            for(String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if(eq > 0) {
+                    try {
+                        q.put(pair.substring(0, eq), Integer.parseInt(pair.substring(eq + 1)));
+                    }
+                    catch(NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number: " + pair);
+                    }
+                }
+            }
+        }
+        if(!q.containsKey("x") || !q.containsKey("y"))
+            throw new IllegalArgumentException("The query needs x and y.");
+        return q;
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class generates a maze on demand from a seed, so that a maze far too large to store,
+ * e.g. 10^6 x 10^6 cells, can be explored: only the regions the agents visit are generated.
+ * The maze is cut into square chunks, each generated from the seed and its position alone:
+ * "random" blocks every cell with the given probability, "backtracker" carves a perfect maze in
+ * every chunk as MazeGenerator.backtracker does and opens one door in its right and bottom walls,
+ * so the chunks are joined into one maze. The same seed always gives the same maze, whatever
+ * order the chunks are generated in.
+ * The chunks generated are kept in a cache of bounded size that evicts the least recently used one.
+ * As MazeGenerator does, the start state is the top left corner and the goal the bottom right one.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class ProceduralMazeSource implements MazeSource {
+    static final String PREFIX = "procedural:";
+
+    private final int rows, cols;
+    private final boolean backtracker;
+    private final double density;
+    private final long seed;
+
+    /**
+     * The side length of the chunks and the number of chunks in a row of chunks.
+     */
+    private final int chunk, chunkCols;
+
+    /**
+     * A generated chunk: its blocked bitset, a row of the chunk being 'width' bits.
+     */
+    private static class Chunk {
+        final long key;
+        final int width;
+        final long[] blocked;
+
+        Chunk(long key, int width, long[] blocked) {
+            this.key = key;
+            this.width = width;
+            this.blocked = blocked;
+        }
+    }
+
+    /**
+     * The chunks generated, in order of their last use. Guarded by this.
+     */
+    private final LinkedHashMap<Long, Chunk> cache;
+
+    /**
+     * The chunk used last, read without taking the lock since an agent stays in one chunk for many steps.
+     */
+    private volatile Chunk last;
+
+    /**
+     * The number of chunks generated and evicted so far. Guarded by this.
+     */
+    private long generated, evicted;
+
+    /**
+     * Constructor.
+     * @param rows
+     * @param cols
+     * @param kind "backtracker" or "random"
+     * @param density the probability of a cell being blocked, for "random"
+     * @param seed
+     * @param chunk the side length of the chunks, even for "backtracker" so that the walls between chunks fall on odd rows and columns
+     * @param capacity the number of chunks cached
+     */
+    public ProceduralMazeSource(int rows, int cols, String kind, double density, long seed, int chunk, final int capacity) {
+        if(!kind.equals("backtracker") && !kind.equals("random"))
+            throw new IllegalArgumentException("Unknown maze kind " + kind);
+        if(rows < 1 || cols < 1)
+            throw new IllegalArgumentException("The maze must have at least one row and one column.");
+        if(chunk < 2 || (kind.equals("backtracker") && chunk % 2 != 0))
+            throw new IllegalArgumentException("The chunk size must be even and at least 2.");
+        if(capacity < 1)
+            throw new IllegalArgumentException("The chunk cache must hold at least one chunk.");
+        this.rows = rows;
+        this.cols = cols;
+        this.backtracker = kind.equals("backtracker");
+        this.density = density;
+        this.seed = seed;
+        this.chunk = chunk;
+        this.chunkCols = (cols + chunk - 1) / chunk;
+        this.cache = new LinkedHashMap<Long, Chunk>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+                if(size() <= capacity)
+                    return false;
+                evicted++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Parses a generated maze given as "procedural:KIND:ROWSxCOLS" followed by any of the options
+     * ":seed=S" (defaults to 0), ":density=P" (defaults to 0.3), ":chunk=N" (defaults to 64) and
+     * ":cache=N" (defaults to 4096), e.g. "procedural:backtracker:1000000x1000000:seed=7".
+     * @param spec
+     */
+    static ProceduralMazeSource parse(String spec) {
+        String[] parts = spec.substring(PREFIX.length()).split(":");
+        if(parts.length < 2 || parts[1].indexOf('x') < 0)
+            throw new IllegalArgumentException("A generated maze is given as procedural:KIND:ROWSxCOLS[:option=value...], not " + spec);
+        String[] size = parts[1].split("x");
+        long seed = 0;
+        double density = 0.3;
+        int chunk = 64, cache = 4096;
+        for(int i = 2; i < parts.length; i++) {
+            String[] option = parts[i].split("=", 2);
+            if(option.length != 2)
+                throw new IllegalArgumentException("Bad option " + parts[i] + " in " + spec);
+            if(option[0].equals("seed"))
+                seed = Long.parseLong(option[1]);
+            else if(option[0].equals("density"))
+                density = Double.parseDouble(option[1]);
+            else if(option[0].equals("chunk"))
+                chunk = Integer.parseInt(option[1]);
+            else if(option[0].equals("cache"))
+                cache = Integer.parseInt(option[1]);
+            else
+                throw new IllegalArgumentException("Unknown option " + option[0] + " in " + spec);
+        }
+        return new ProceduralMazeSource(Integer.parseInt(size[0]), Integer.parseInt(size[1]), parts[0], density, seed, chunk, cache);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public boolean isBlocked(int x, int y) {
+        if(x < 0 || y < 0 || x >= rows || y >= cols)
+            return true;
+        if((x == 0 && y == 0) || (x == rows - 1 && y == cols - 1))
+            return false; //The start and goal states are always open.
+        if(x == rows - 1 && y == cols - 2 && rows > 1 && raw(rows - 2, cols - 1) && raw(x, y))
+            return false; //Joins the goal state to the maze, as MazeGenerator does.
+        return raw(x, y);
+    }
+
+    public boolean isGoal(int x, int y) {
+        return x == rows - 1 && y == cols - 1;
+    }
+
+    public int[] start() {
+        return new int[] {0, 0};
+    }
+
+    public int index(int x, int y) {
+        return (long)rows * cols * 4 > Integer.MAX_VALUE ? -1 : x * cols + y;
+    }
+
+    /**
+     * Returns true if cell (x, y) is blocked in its chunk.
+     */
+    private boolean raw(int x, int y) {
+        long key = (long)(x / chunk) * chunkCols + y / chunk;
+        Chunk c = last;
+        if(c == null || c.key != key) {
+            c = chunk(key);
+            last = c;
+        }
+        int i = (x % chunk) * c.width + y % chunk;
+        return (c.blocked[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the chunk with the given key from the cache, generating it if it isn't there.
+     */
+    private synchronized Chunk chunk(long key) {
+        Chunk c = cache.get(key);
+        if(c == null) {
+            c = generate(key);
+            cache.put(key, c);
+            generated++;
+        }
+        return c;
+    }
+
+    /**
+     * Generates the chunk with the given key from the seed and the key alone.
+     */
+    private Chunk generate(long key) {
+        int x0 = (int)(key / chunkCols) * chunk;
+        int y0 = (int)(key % chunkCols) * chunk;
+        int h = Math.min(chunk, rows - x0);
+        int w = Math.min(chunk, cols - y0);
+        //Mixed through the generator so that neighbouring chunks don't get overlapping streams.
+        Rng rng = new Rng(new Rng(seed ^ (key * 0xD1B54A32D192ED03L)).nextLong());
+
+        if(!backtracker)
+            return new Chunk(key, w, MazeGenerator.scatter(h, w, density, rng));
+        long[] blocked = MazeGenerator.carve(h, w, rng);
+        if(x0 + h < rows) { //A door in the bottom wall, below one of the cells at even coordinates.
+            int i = (h - 1) * w + 2 * rng.nextInt((w + 1) / 2);
+            blocked[i >>> 6] &= ~(1L << i);
+        }
+        if(y0 + w < cols) { //A door in the right wall.
+            int i = 2 * rng.nextInt((h + 1) / 2) * w + w - 1;
+            blocked[i >>> 6] &= ~(1L << i);
+        }
+        return new Chunk(key, w, blocked);
+    }
+
+    /**
+     * The number of chunks generated so far, counting those generated again after being evicted.
+     */
+    synchronized long chunksGenerated() {
+        return generated;
+    }
+
+    synchronized long chunksEvicted() {
+        return evicted;
+    }
+
+    synchronized int chunksCached() {
+        return cache.size();
+    }
+
+    /**
+     * Generates the whole maze into a Maze, chunk by chunk, for the solvers that need every cell in memory.
+     */
+    Maze toMaze() {
+        if((long)rows * cols * 4 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The maze of " + rows + "x" + cols + " cells is too large to hold in memory.");
+        long[] blocked = new long[Maze.words((long)rows * cols)];
+        long[] goal = new long[blocked.length];
+        for(int x0 = 0; x0 < rows; x0 += chunk) {
+            for(int y0 = 0; y0 < cols; y0 += chunk) {
+                for(int x = x0; x < Math.min(x0 + chunk, rows); x++) {
+                    for(int y = y0; y < Math.min(y0 + chunk, cols); y++) {
+                        if(isBlocked(x, y))
+                            Maze.set(blocked, x * cols + y);
+                    }
+                }
+            }
+        }
+        Maze.set(goal, rows * cols - 1);
+        return new Maze(rows, cols, blocked, goal, 0);
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * This interface receives the progress of an iterative solver after every epoch.
+ * See LevelReporter for the reporter selected on the command line.
+ *
+ * @author Sai Chitti
+ *
+ */
+public interface ProgressReporter {
+    /**
+     * Called after every epoch.
+     * @param epoch the number of the epoch, starting at 1
+     * @param residual the Bellman residual of the epoch
+     * @param changed the number of states whose value changed
+     * @param nanos the time the epoch took
+     * @param grid the grid holding the values after the epoch, null if the solver doesn't hold them; it must not be kept past the call
+     */
+    void epoch(int epoch, double residual, long changed, long nanos, Grid grid) throws Exception;
+
+    /**
+     * Called once the solver is done. Waits for pending output to be written.
+     */
+    void close() throws Exception;
+}
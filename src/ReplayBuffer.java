@@ -0,0 +1,133 @@
+/**
+ * This class stores the most recent transitions (s, a, r, s', terminal) of an agent in a
+ * ring of fixed capacity so they can be replayed. Every field is kept in its own primitive
+ * column, so storing a transition allocates nothing and millions of them are only a few
+ * arrays for the garbage collector.
+ * Transitions are sampled uniformly or, with prioritized replay, with probability
+ * proportional to priority^alpha, where the priority is the size of the last TD error
+ * of the transition; new transitions get the highest priority seen so far.
+ * Prioritized samples come with importance sampling weights (N * P(i))^-beta,
+ * scaled so that the largest weight of a batch is 1.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class ReplayBuffer {
+    /**
+     * The columns of the stored transitions.
+     */
+    final int[] states, nextStates;
+    final byte[] actions;
+    final double[] rewards;
+    private final long[] terminal;
+
+    /**
+     * The number of transitions stored and the slot the next one is written to.
+     */
+    private int size, next;
+
+    /**
+     * The priorities of the stored transitions, null with uniform sampling.
+     */
+    private final SumTree priorities;
+    private final double alpha, beta;
+    private double maxPriority = 1;
+
+    /**
+     * Constructor.
+     * @param capacity the number of transitions kept; the oldest one is overwritten when the buffer is full
+     * @param alpha how strongly sampling favours transitions with large TD errors, 0 to sample uniformly
+     * @param beta the exponent of the importance sampling weights of prioritized samples
+     */
+    public ReplayBuffer(int capacity, double alpha, double beta) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity of the replay buffer must be positive.");
+        states = new int[capacity];
+        nextStates = new int[capacity];
+        actions = new byte[capacity];
+        rewards = new double[capacity];
+        terminal = new long[Maze.words(capacity)];
+        priorities = alpha > 0 ? new SumTree(capacity) : null;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * The number of transitions stored.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores a transition, overwriting the oldest one if the buffer is full.
+     */
+    public void add(int s, int a, double r, int s_prime, boolean isTerminal) {
+        int i = next;
+        states[i] = s;
+        actions[i] = (byte)a;
+        rewards[i] = r;
+        nextStates[i] = s_prime;
+        if(isTerminal)
+            terminal[i >>> 6] |= 1L << i;
+        else
+            terminal[i >>> 6] &= ~(1L << i);
+        if(priorities != null)
+            priorities.set(i, maxPriority);
+
+        next = next + 1 == states.length ? 0 : next + 1;
+        if(size < states.length)
+            size++;
+    }
+
+    boolean isTerminal(int i) {
+        return (terminal[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Samples a batch of stored transitions.
+     * Prioritized samples are stratified: the i-th one is drawn from the i-th of k equal parts of the total priority.
+     * @param rng
+     * @param k the number of transitions to sample
+     * @param indices receives the slots of the sampled transitions
+     * @param weights receives their importance sampling weights, all 1 with uniform sampling
+     * @return the number of transitions sampled, 0 if the buffer is empty
+     */
+    public int sample(Rng rng, int k, int[] indices, double[] weights) {
+        if(size == 0)
+            return 0;
+        if(priorities == null) {
+            for(int j = 0; j < k; j++) {
+                indices[j] = rng.nextInt(size);
+                weights[j] = 1;
+            }
+            return k;
+        }
+
+        double total = priorities.total();
+        double segment = total / k;
+        double maxWeight = 0;
+        for(int j = 0; j < k; j++) {
+            int i = priorities.find((j + rng.nextDouble()) * segment);
+            indices[j] = i;
+            weights[j] = Math.pow(size * priorities.get(i) / total, -beta);
+            maxWeight = Math.max(maxWeight, weights[j]);
+        }
+        for(int j = 0; j < k; j++)
+            weights[j] /= maxWeight;
+        return k;
+    }
+
+    /**
+     * Sets the priority of a stored transition from its latest TD error. Does nothing with uniform sampling.
+     * @param i the slot of the transition
+     * @param tdError
+     */
+    public void update(int i, double tdError) {
+        if(priorities == null)
+            return;
+        double priority = Math.pow(Math.abs(tdError) + 1e-6, alpha);
+        maxPriority = Math.max(maxPriority, priority);
+        priorities.set(i, priority);
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * This class checks that FrontierSolver.resolve, which updates a solved maze after a few of its
+ * cells are edited, gives the same values, Q values and policy as solving the edited maze from scratch.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class ResolveCheck {
+    /**
+     * Checks FrontierSolver.resolve against a full prioritized solve of the edited maze on random edits of generated mazes,
+     * and exits with status 1 if they differ in any value, Q value or action.
+     * Requires command line arguments.
+     * args[0] - Number of trials.
+     * args[1] - Number of rows of the generated mazes.
+     * args[2] - Number of columns of the generated mazes.
+     * args[3] - Discount factor(Gamma).
+     * Sample arguments - 1000 10 5 0.9
+     * @param args
+     */
+    public static void main(String[] args) {
+        int trials = Integer.parseInt(args[0]);
+        int rows = Integer.parseInt(args[1]);
+        int cols = Integer.parseInt(args[2]);
+        double gamma = Double.parseDouble(args[3]);
+        int failed = 0;
+        for(int seed = 0; seed < trials; seed++) {
+            if(!checkResolve(rows, cols, gamma, seed)) {
+                System.out.println("Seed " + seed + ": resolve differs from a full solve.");
+                failed++;
+            }
+        }
+        System.out.println(failed + " of " + trials + " trials differ.");
+        if(failed > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Edits a generated maze at random, resolves it and compares the result with a full solve of the edited maze.
+     * Every other trial removes the goal and re-sets an open cell of the old greedy path from the start to what it was,
+     * which lowers the values upstream of an edit that changes nothing.
+     * @param rows
+     * @param cols
+     * @param gamma
+     * @param seed selects the maze and the edits; even seeds give perfect mazes, odd ones random mazes
+     * @return true if FrontierSolver.resolve gives the same values, Q values and policy as the full solve
+     */
+    static boolean checkResolve(int rows, int cols, double gamma, long seed) {
+        Rng rng = new Rng(seed);
+        Maze maze = seed % 2 == 0 ? MazeGenerator.backtracker(rows, cols, seed) : MazeGenerator.random(rows, cols, 0.25, seed);
+        Grid grid = solve(maze, gamma);
+
+        int n = 1 + rng.nextInt(4);
+        int[] cells = new int[n];
+        char[] types = new char[n];
+        for(int i = 0; i < n; i++) {
+            cells[i] = rng.nextInt(maze.cells());
+            types[i] = "*.G".charAt(rng.nextInt(3));
+        }
+        if(seed % 4 < 2 && maze.start >= 0) {
+            int goal = maze.cells() - 1;
+            cells[0] = goal;
+            types[0] = '.';
+            //An open cell on the old greedy path from the start, edited to stay open.
+            int steps = rng.nextInt(rows + cols);
+            int cell = maze.start;
+            for(int i = 0; i < steps && !maze.isGoal(cell); i++)
+                cell = maze.next(cell / cols, cell % cols, grid.policy[cell]);
+            if(n > 1 && !maze.isGoal(cell)) {
+                cells[1] = cell;
+                types[1] = '.';
+            }
+        }
+        //A cell edited twice takes its last type; keep only the last edit of each cell.
+        int m = 0;
+        for(int i = 0; i < n; i++) {
+            boolean last = true;
+            for(int j = i + 1; j < n; j++)
+                last &= cells[j] != cells[i];
+            if(last) {
+                cells[m] = cells[i];
+                types[m++] = types[i];
+            }
+        }
+        cells = Arrays.copyOf(cells, m);
+        Maze edited = maze.edit(cells, Arrays.copyOf(types, m));
+
+        FrontierSolver.resolve(grid, edited, cells, gamma);
+        Grid full = solve(edited, gamma);
+        return Arrays.equals(grid.values, full.values) && Arrays.equals(grid.q, full.q) && Arrays.equals(grid.policy, full.policy);
+    }
+
+    /**
+     * Solves the maze by prioritized sweeping and computes the Q values and policy of every cell.
+     */
+    private static Grid solve(Maze maze, double gamma) {
+        Grid grid = new Grid(maze);
+        FrontierSolver.prioritizedSweeping(grid, gamma, 0);
+        for(int cell = 0; cell < maze.cells(); cell++)
+            FrontierSolver.updateQ(grid, cell, gamma);
+        return grid;
+    }
+}
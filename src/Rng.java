@@ -0,0 +1,40 @@
+/**
+ * A small, fast and seedable pseudo random number generator (SplitMix64).
+ * Unlike Math.random() it is not shared between threads, so each learner owns one,
+ * and its whole state is a single long that can be saved and restored.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Rng {
+    /**
+     * The state of the generator.
+     */
+    long state;
+
+    Rng(long seed) {
+        state = seed;
+    }
+
+    long nextLong() {
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a double uniformly distributed in [0, 1).
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns an int uniformly distributed in [0, bound).
+     * @param bound a positive bound
+     */
+    int nextInt(int bound) {
+        return (int)(((nextLong() >>> 32) * bound) >>> 32);
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class splits the rows [from, to) of a maze into bands and runs a
+ * kernel over them on a ForkJoinPool. The kernel must only write the
+ * entries of the rows it is given so that bands can run at the same time.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class RowBands extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The work done for a band of rows.
+     */
+    interface Kernel {
+        void run(int from, int to);
+    }
+
+    private final Kernel kernel;
+    private final int from, to;
+
+    /**
+     * Bands with at most this many rows are not split any further.
+     */
+    private final int grain;
+
+    RowBands(Kernel kernel, int from, int to, int grain) {
+        this.kernel = kernel;
+        this.from = from;
+        this.to = to;
+        this.grain = Math.max(1, grain);
+    }
+
+    /**
+     * Returns a band size that gives every thread of the pool a few bands to balance the load.
+     * @param rows
+     * @param threads
+     */
+    static int grain(int rows, int threads) {
+        return Math.max(1, rows / (threads * 4));
+    }
+
+    @Override
+    protected void compute() {
+        if(to - from <= grain) {
+            kernel.run(from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new RowBands(kernel, from, mid, grain), new RowBands(kernel, mid, to, grain));
+    }
+}
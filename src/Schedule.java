@@ -0,0 +1,84 @@
+/**
+ * This class gives the value of a parameter of Q-Learning, epsilon or the learning rate, in every episode of a run:
+ * "constant" keeps its initial value, "linear:END" moves it in a straight line from its initial value in the first
+ * episode to END in the last one, and "exponential:RATE[:FLOOR]" multiplies it by RATE after every episode without
+ * going below FLOOR (defaults to 0). The value only depends on the number of the episode, so a resumed run or the
+ * worker threads of a parallel one get the same values as a single uninterrupted run.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Schedule {
+    private static final int CONSTANT = 0, LINEAR = 1, EXPONENTIAL = 2;
+
+    private final int kind;
+    private final double initial;
+
+    /**
+     * The value in the last episode for "linear", the rate and floor for "exponential".
+     */
+    private final double end, rate, floor;
+
+    /**
+     * The number of episodes of the run.
+     */
+    private final int episodes;
+
+    private Schedule(int kind, double initial, double end, double rate, double floor, int episodes) {
+        this.kind = kind;
+        this.initial = initial;
+        this.end = end;
+        this.rate = rate;
+        this.floor = floor;
+        this.episodes = episodes;
+    }
+
+    /**
+     * Parses a schedule given as "constant", "linear:END" or "exponential:RATE[:FLOOR]".
+     * @param spec
+     * @param initial the value in the first episode
+     * @param episodes the number of episodes of the run
+     */
+    static Schedule parse(String spec, double initial, int episodes) {
+        String[] parts = spec.split(":");
+        try {
+            if(parts[0].equals("constant") && parts.length == 1)
+                return new Schedule(CONSTANT, initial, initial, 1, 0, episodes);
+            if(parts[0].equals("linear") && parts.length == 2)
+                return new Schedule(LINEAR, initial, Double.parseDouble(parts[1]), 1, 0, episodes);
+            if(parts[0].equals("exponential") && (parts.length == 2 || parts.length == 3)) {
+                double rate = Double.parseDouble(parts[1]);
+                if(rate <= 0 || rate > 1)
+                    throw new IllegalArgumentException("The rate of an exponential schedule must be in (0, 1], not " + rate);
+                return new Schedule(EXPONENTIAL, initial, 0, rate, parts.length == 3 ? Double.parseDouble(parts[2]) : 0, episodes);
+            }
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Bad schedule " + spec);
+        }
+        throw new IllegalArgumentException("A schedule is \"constant\", \"linear:END\" or \"exponential:RATE[:FLOOR]\", not " + spec);
+    }
+
+    /**
+     * Creates the schedule selected by the optional command line argument --NAME-schedule=S (defaults to "constant").
+     * @param args
+     * @param name
+     * @param initial the value in the first episode
+     * @param episodes the number of episodes of the run
+     */
+    static Schedule fromArgs(String[] args, String name, double initial, int episodes) {
+        return parse(AuxMethods.getOption(args, name + "-schedule", "constant"), initial, episodes);
+    }
+
+    /**
+     * Returns the value in the given episode, counting from 0.
+     * @param episode
+     */
+    double at(int episode) {
+        if(kind == CONSTANT)
+            return initial;
+        if(kind == LINEAR)
+            return initial + (end - initial) * Math.min(1.0, (double)episode / Math.max(1, episodes - 1));
+        return Math.max(floor, initial * Math.pow(rate, episode));
+    }
+}
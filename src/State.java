@@ -1,5 +1,6 @@
 /**
  * This class represents a State in a maze.
+ * The solvers keep their data in a Grid; a State is only a view of one cell (see Grid.view).
  * 
  * @author Sai Chitti
  *
@@ -0,0 +1,65 @@
+/**
+ * A binary tree over a fixed number of non-negative priorities in which every inner
+ * node holds the sum of its children, so that an item can be sampled with probability
+ * proportional to its priority in O(log n) and a priority updated in O(log n).
+ * The tree is stored in one array: node k has the children 2k and 2k + 1, and the
+ * leaves start at the first power of two not below the capacity.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class SumTree {
+    private final double[] tree;
+    private final int leaves;
+
+    SumTree(int capacity) {
+        int n = 1;
+        while(n < capacity)
+            n <<= 1;
+        leaves = n;
+        tree = new double[2 * n];
+    }
+
+    /**
+     * The sum of all the priorities.
+     */
+    double total() {
+        return tree[1];
+    }
+
+    double get(int i) {
+        return tree[leaves + i];
+    }
+
+    /**
+     * Sets the priority of item i and updates the sums above it.
+     * @param i
+     * @param priority
+     */
+    void set(int i, double priority) {
+        int k = leaves + i;
+        tree[k] = priority;
+        //Sums are recomputed from the children rather than adjusted, so rounding errors don't pile up.
+        for(k >>>= 1; k > 0; k >>>= 1)
+            tree[k] = tree[2 * k] + tree[2 * k + 1];
+    }
+
+    /**
+     * Returns the item at which the running sum of the priorities passes u.
+     * @param u a number in [0, total())
+     */
+    int find(double u) {
+        int k = 1;
+        while(k < leaves) {
+            double left = tree[2 * k];
+            if(u < left || tree[2 * k + 1] == 0) {
+                k = 2 * k;
+            }
+            else {
+                u -= left;
+                k = 2 * k + 1;
+            }
+        }
+        return k - leaves;
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * This class holds the outcome of one step in the environment.
+ * The agent reuses one instance for all its steps so that stepping doesn't allocate.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Transition {
+    int x, y; //The coordinates of the state reached.
+    int cell; //The cell index of the state reached, -1 if the maze is too large to index its cells.
+    double reward; //The reward received for the step.
+    boolean isTerminal; //True if the state reached is a terminal/goal state.
+}
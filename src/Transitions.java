@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/**
+ * This class holds the transition model of a maze whose moves can slip or have costs
+ * as sparse tables (compressed rows): for the state-action pair sa = cell * 4 + a,
+ * the states it can lead to and their probabilities are targets[i] and probs[i]
+ * for i in [offsets[sa], offsets[sa + 1]). Moves that end in the same state are merged,
+ * so a state-action pair has between one and three entries.
+ * The tables are built once, so a sweep only sums over them.
+ *
+ * @author Sai Chitti
+ *
+ */
+public class Transitions {
+    final int[] offsets;
+    final int[] targets;
+    final double[] probs;
+
+    /**
+     * The reward of a move out of each cell.
+     */
+    final double[] rewards;
+
+    Transitions(Maze maze) {
+        int cells = maze.cells();
+        offsets = new int[cells * 4 + 1];
+        int[] t = new int[cells * 4 * 3];
+        double[] p = new double[t.length];
+        rewards = new double[cells];
+        int n = 0;
+
+        for(int cell = 0; cell < cells; cell++) {
+            int x = cell / maze.cols;
+            int y = cell % maze.cols;
+            rewards[cell] = maze.reward(cell);
+
+            for(int a = 0; a < 4; a++) {
+                int sa = cell * 4 + a;
+                offsets[sa] = n;
+                //The intended direction, then the two perpendicular ones.
+                for(int k = 0; k < 3; k++) {
+                    int d = k == 0 ? a : k == 1 ? (a + 1) & 3 : (a + 3) & 3;
+                    double prob = k == 0 ? 1 - maze.slip : maze.slip / 2;
+                    if(prob == 0)
+                        continue;
+                    int next = maze.next(x, y, d);
+                    int i = offsets[sa];
+                    while(i < n && t[i] != next)
+                        i++;
+                    if(i < n) {
+                        p[i] += prob;
+                    }
+                    else {
+                        t[n] = next;
+                        p[n++] = prob;
+                    }
+                }
+            }
+        }
+        offsets[cells * 4] = n;
+        targets = Arrays.copyOf(t, n);
+        probs = Arrays.copyOf(p, n);
+    }
+
+    /**
+     * Returns the Q value of the state-action pair: its reward plus the discounted expected value of the next state.
+     * @param sa cell * 4 + a
+     * @param values
+     * @param gamma
+     */
+    double q(int sa, double[] values, double gamma) {
+        double expected = 0;
+        for(int i = offsets[sa]; i < offsets[sa + 1]; i++)
+            expected += probs[i] * values[targets[i]];
+        return rewards[sa >>> 2] + gamma * expected;
+    }
+}
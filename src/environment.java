@@ -5,7 +5,9 @@ import java.io.FileWriter;
 
 /**
  * This class simulates an environment for an agent in the Q-Learning setting
- * to interact with.
+ * to interact with. The maze is read through a MazeSource by the coordinates of
+ * the agent, so it doesn't have to be held in memory: only the cells the agent
+ * visits are read from a mapped file or generated.
  *  
  * @author Sai Chitti
  *
@@ -13,8 +15,14 @@ import java.io.FileWriter;
 public class environment {
     /**
      * The maze in the environment that the agent can explore.
+     * It is only read, so many environments can share it.
      */
-    static State[][] env_maze;
+    private final MazeSource env_maze;
+    
+    /**
+     * The same maze if it is held in memory, whose cells are then read by their index, null otherwise.
+     */
+    private final Maze flat;
     
     /**
      * The initial state of the agent.
@@ -26,9 +34,14 @@ public class environment {
      */
     private int curr_x, curr_y;
     
+    /**
+     * The random number generator deciding whether a move slips, only used if moves in the maze can slip.
+     */
+    private final Rng rng;
+    
     /**
      * Requires command line arguments.
-     * args[0] - Path to the input file that contains the maze to solve.
+     * args[0] - Path to the input file that contains the maze to solve, or a generated maze as "procedural:..."; see ProceduralMazeSource.
      * args[1] - Path to an output file to which the intermediate states will be printed.
      * args[2] - Path to an input file which contains the actions to take care of.
      * @param args
@@ -40,12 +53,31 @@ public class environment {
     }
 
     /**
-     * Constructor that initializes the maze based on the given file.
-     * @param fileName
+     * Constructor that initializes the maze based on the given file, which is read on demand.
+     * @param fileName the path of a maze file or a generated maze as "procedural:..."; see MazeSource.open
      * @throws Exception
      */
     public environment(String fileName) throws Exception {
-        AuxMethods.getMaze(fileName, "env");
+        this(MazeSource.open(fileName));
+    }
+
+    /**
+     * Constructor for an environment exploring the given maze.
+     * @param maze
+     */
+    public environment(MazeSource maze) {
+        this(maze, new Rng(0));
+    }
+
+    /**
+     * Constructor for an environment exploring the given maze.
+     * @param maze
+     * @param rng the random number generator deciding whether a move slips, e.g. the one of the agent
+     */
+    public environment(MazeSource maze, Rng rng) {
+        env_maze = maze;
+        flat = maze instanceof Maze ? (Maze)maze : null;
+        this.rng = rng;
         InitState();
     }
 
@@ -53,18 +85,13 @@ public class environment {
      * Finds the initial state(S) in the maze.
      */
     private void InitState() {
-        for(int i = 0; i < env_maze.length; i++) {
-            for(int j = 0; j < env_maze[0].length; j++) {
-                State s = env_maze[i][j];
-                if(s.isStart) {
-                    initx = i;
-                    inity = j;
-                    curr_x = i;
-                    curr_y = j;
-                    return;
-                }
-            }
-        }
+        int[] start = env_maze.start();
+        if(start == null)
+            return;
+        initx = start[0];
+        inity = start[1];
+        curr_x = initx;
+        curr_y = inity;
     }
     
     /**
@@ -80,54 +107,84 @@ public class environment {
      * sets the current state to the next state.
      * If the "next" state as determined by the action from the current state is
      * not defined, the current state is returned.
+     * The reward is truncated to an int; use step(a, t) for mazes with fractional costs.
      * @param a the step(one of {0,1,2,3})
      * @return an array containing the essential information about the step.
      */
     public int[] step(int a) {
-        int reward;
-        int isTerminal;
-        
-        if(env_maze[curr_x][curr_y].isGoal) {  //If we are already at a terminal/goal state, no other action needs to be taken.
-            reward = 0;
-            isTerminal = 1;
-            return new int[] {curr_x, curr_y, reward, isTerminal};
-        }
-        else if(a == 0) { //Direction = West
-            if(curr_y - 1 >= 0 && !env_maze[curr_x][curr_y-1].isBlocked) {
-                curr_y--;
-            }
-        }
-        else if(a == 1) { //Direction = North
-            if(curr_x - 1 >= 0 && !env_maze[curr_x-1][curr_y].isBlocked) {
-                curr_x--;
-            }
+        Transition t = new Transition();
+        step(a, t);
+        return new int[] {t.x, t.y, (int)t.reward, t.isTerminal ? 1 : 0};
+    }
+
+    /**
+     * Same as step(a), but writes the essential information about the step
+     * to the given transition instead of allocating an array.
+     * @param a the step(one of {0,1,2,3})
+     * @param t the transition to fill
+     */
+    public void step(int a, Transition t) {
+        if(flat != null) {
+            stepFlat(a, t);
+            return;
         }
-        else if(a == 2) { //Direction = East
-            if(curr_y + 1 < env_maze[0].length && !env_maze[curr_x][curr_y+1].isBlocked) {
-                curr_y++;
-            }
+        if(env_maze.isGoal(curr_x, curr_y)) {  //If we are already at a terminal/goal state, no other action needs to be taken.
+            t.reward = 0;
+            t.isTerminal = true;
         }
-        else { //Direction = South
-            if(curr_x + 1 < env_maze.length && !env_maze[curr_x+1][curr_y].isBlocked) {
-                curr_x++;
+        else {
+            int d = env_maze.direction(a, rng); //The direction actually moved in, if the move slips.
+            int x = curr_x, y = curr_y;
+            if(d == 0) //Direction = West
+                y--;
+            else if(d == 1) //Direction = North
+                x--;
+            else if(d == 2) //Direction = East
+                y++;
+            else //Direction = South
+                x++;
+            t.reward = env_maze.reward(curr_x, curr_y);
+            if(!env_maze.isBlocked(x, y)) { //Blocked cells and cells outside the maze can't be entered.
+                curr_x = x;
+                curr_y = y;
             }
+            t.isTerminal = env_maze.isGoal(curr_x, curr_y);
         }
+        t.x = curr_x;
+        t.y = curr_y;
+        t.cell = env_maze.index(curr_x, curr_y);
+    }
+    
+    /**
+     * Same as step for a maze held in memory, moving from cell to cell without going through the coordinates.
+     */
+    private void stepFlat(int a, Transition t) {
+        int cell = flat.index(curr_x, curr_y);
         
-        int[] returnPackage = new int[4];
-        returnPackage[0] = curr_x;
-        returnPackage[1] = curr_y;
-        
-        if(env_maze[curr_x][curr_y].isGoal) {
-            reward = -1;
-            isTerminal = 1;
+        if(flat.isGoal(cell)) {
+            t.reward = 0;
+            t.isTerminal = true;
         }
         else {
-            reward = -1;
-            isTerminal = 0;
+            int d = flat.direction(a, rng);
+            int next = flat.next(curr_x, curr_y, d);
+            if(next != cell) {
+                if(d == 0) //Direction = West
+                    curr_y--;
+                else if(d == 1) //Direction = North
+                    curr_x--;
+                else if(d == 2) //Direction = East
+                    curr_y++;
+                else //Direction = South
+                    curr_x++;
+            }
+            t.reward = flat.reward(cell);
+            cell = next;
+            t.isTerminal = flat.isGoal(cell);
         }
-        returnPackage[2] = reward;
-        returnPackage[3] = isTerminal;
-        return returnPackage;
+        t.x = curr_x;
+        t.y = curr_y;
+        t.cell = cell;
     }
     
     /**
@@ -160,4 +217,11 @@ public class environment {
     public int[] getCurrentState() {
         return new int[] {curr_x, curr_y};
     }
+    
+    /**
+     * Returns the cell index of the current state of the agent in the environment, -1 if the maze is too large to index its cells.
+     */
+    public int getCurrentCell() {
+        return env_maze.index(curr_x, curr_y);
+    }
 }
@@ -1,4 +1,7 @@
-import java.util.Random;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class implements the Q-Learning algorithm.
@@ -8,34 +11,79 @@ import java.util.Random;
  */
 public class q_learning {
     /**
-     * The 2D array representing the maze to solve. 
+     * The grid holding the maze to solve and the values, Q values and policy of this learner.
      */
-    static State[][] maze;
+    final Grid grid;
     
     /**
      * Discount Factor.
      */
-    private static double gamma;
+    private final double gamma;
     
     /**
-     * The learning factor, alpha.
+     * The learning factor, alpha, of the episodes run without a schedule.
      */
-    private static double learning_rate;
+    private final double learning_rate;
     
     /**
-     * Epsilon that determines the trade-off factor between exploring and exploiting.
+     * Epsilon that determines the trade-off factor between exploring and exploiting, in the episodes run without a schedule.
      */
-    private static double epsilon;
+    private final double epsilon;
     
     /**
      * Maximum length of an episode.
      */
-    private static double episode_length;
+    private final int episode_length;
     
     /**
-     * Total number of episodes.
+     * The random number generator of the learner.
      */
-    private static int episodes;
+    private final Rng rng;
+    
+    /**
+     * The transition filled in by every step of the agent.
+     */
+    private final Transition transition = new Transition();
+    
+    /**
+     * The greedy action of every state the last time the agent saw it, -1 if it never did. Only qLearn writes it,
+     * unlike grid.policy which updateValues rewrites, so reports and checkpoints don't change what counts as a change.
+     */
+    private final byte[] seen;
+    
+    /**
+     * The buffer of past transitions replayed after every step, null if transitions are not replayed,
+     * the number of them replayed per step, and the slots and weights of a replayed batch.
+     */
+    private ReplayBuffer replay;
+    private int replayUpdates;
+    private int[] batch;
+    private double[] weights;
+    
+    /**
+     * The metrics of the episodes run by this learner and its workers.
+     */
+    final Metrics metrics = new Metrics();
+    
+    /**
+     * Constructor for a learner of the given maze. The maze is only read, so it can be shared by many learners.
+     * @param maze
+     * @param gamma the discount factor
+     * @param learning_rate alpha
+     * @param epsilon for the epsilon-greedy strategy
+     * @param episode_length the maximum length of an episode
+     * @param seed the seed of the random number generator
+     */
+    public q_learning(Maze maze, double gamma, double learning_rate, double epsilon, int episode_length, long seed) {
+        this.grid = new Grid(maze);
+        this.seen = new byte[maze.cells()];
+        Arrays.fill(seen, (byte)-1);
+        this.gamma = gamma;
+        this.learning_rate = learning_rate;
+        this.epsilon = epsilon;
+        this.episode_length = episode_length;
+        this.rng = new Rng(seed);
+    }
     
     /**
      * Requires command line arguments.
@@ -48,54 +96,321 @@ public class q_learning {
      * args[6] - Learning Rate (Alpha).
      * args[7] - Discount factor(Gamma).
      * args[8] - Epsilon for the epsilon-greedy strategy.
+     * Optional arguments:
+     * --seed=N - Seed of the random number generator (defaults to a seed based on the time).
+     * --threads=K - Number of worker threads, each running its own agent and episodes against the shared Q table (defaults to 1).
+     * --sharing=S - How workers update the shared Q table: "hogwild" (default) updates it without locking,
+     *   "striped" locks the band of rows that holds the updated state.
+     * --metrics=path - File to which a snapshot of the metrics is written every --metrics-every=ms (defaults to 1000), as JSON lines.
+     * --jmx=name - Expose the metrics over JMX as maze:type=Metrics,name=<name>.
+     * --format=F - "text" (default) or "binary" for the output files; see BinaryResults.
+     * --replay=K - Replay K stored transitions after every step (defaults to 0, no replay). Only with one thread.
+     * --replay-capacity=C - Number of the most recent transitions stored for replay (defaults to 1000000).
+     * --prioritized=A - Replay transitions with probability proportional to |TD error|^A instead of uniformly.
+     * --replay-beta=B - Exponent of the importance sampling weights of prioritized replay (defaults to 0.4).
+     * --checkpoint=path - File to which the Q table, the state of the random number generator and the number of
+     *   episodes done are saved every --checkpoint-every=N episodes (defaults to 1000) and at the end; see Checkpointer.
+     * --resume=path - Continue the run saved in the given checkpoint; args[4] is the total number of episodes, including those already done.
+     * --epsilon-schedule=S, --alpha-schedule=S - How epsilon and the learning rate change from one episode to the next, starting
+     *   from args[8] and args[6]: "constant" (default), "linear:END" or "exponential:RATE[:FLOOR]"; see Schedule.
+     * --stop-stable=W - Stop early once the greedy policy has changed at most --stop-changes=C times (defaults to 0) over the
+     *   last W episodes. A change is counted when the agent sees a state whose greedy action differs from the one it saw
+     *   there last, or a state it never saw. With several threads the changes are counted over consecutive blocks of W episodes.
+     * --report-every=N - Print epsilon, the learning rate, the number of changes of the greedy policy and the value of the
+     *   starting state every N episodes (defaults to 0, no reports).
      * Sample args - ./src/medium_maze.txt ./src/QLearn_Values.txt ./src/QLearn_QValues.txt ./src/QLearn_Policy.txt 1000 20 0.8 0.9 0.05
      * @param args
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
-        AuxMethods.getMaze(args[0], "Q");
+        Maze maze = AuxMethods.getMaze(args[0]);
+        q_learning learner = learn(maze, args, System.out);
+        AuxMethods.writeResults(args, args[1], args[2], args[3], learner.grid, learner.gamma);
+    }
+
+    /**
+     * Runs Q-Learning on a maze that has already been loaded as configured by the command line arguments of main;
+     * the paths in args[0] to args[3] are not used.
+     * @param maze
+     * @param args
+     * @param out the stream the progress is printed to
+     * @return the learner, holding the values, Q values and policy
+     * @throws Exception
+     */
+    static q_learning learn(Maze maze, String[] args, PrintStream out) throws Exception {
+        int episodes = Integer.parseInt(args[4]);
+        int episode_length = Integer.parseInt(args[5]);
+        double learning_rate = Double.parseDouble(args[6]);
+        double gamma = Double.parseDouble(args[7]);
+        double epsilon = Double.parseDouble(args[8]);
+        long seed = Long.parseLong(AuxMethods.getOption(args, "seed", "" + System.nanoTime()));
+        q_learning learner = new q_learning(maze, gamma, learning_rate, epsilon, episode_length, seed);
         
-        episodes = Integer.parseInt(args[4]);
-        episode_length = Integer.parseInt(args[5]);
-        learning_rate = Double.parseDouble(args[6]);
-        gamma = Double.parseDouble(args[7]);
-        epsilon = Double.parseDouble(args[8]);
+        //Episodes done before this run, by the run saved in the checkpoint to resume.
+        int done = 0;
+        String resume = AuxMethods.getOption(args, "resume", null);
+        if(resume != null) {
+            Checkpointer.Snapshot snapshot = Checkpointer.read(resume, Checkpointer.QVALUES, maze, gamma);
+            System.arraycopy(snapshot.table, 0, learner.grid.q, 0, snapshot.table.length);
+            learner.rng.state = snapshot.rngState;
+            done = (int)snapshot.counter;
+            out.println("Resuming after episode " + done);
+        }
+        Checkpointer checkpointer = Checkpointer.fromArgs(args, Checkpointer.QVALUES, maze, gamma);
+        int replayUpdates = Integer.parseInt(AuxMethods.getOption(args, "replay", "0"));
+        if(replayUpdates > 0) {
+            learner.setReplay(new ReplayBuffer(Integer.parseInt(AuxMethods.getOption(args, "replay-capacity", "1000000")),
+                    Double.parseDouble(AuxMethods.getOption(args, "prioritized", "0")),
+                    Double.parseDouble(AuxMethods.getOption(args, "replay-beta", "0.4"))), replayUpdates);
+        }
+        int every = Integer.parseInt(AuxMethods.getOption(args, "checkpoint-every", "1000"));
+        Schedule epsilons = Schedule.fromArgs(args, "epsilon", epsilon, episodes);
+        Schedule alphas = Schedule.fromArgs(args, "alpha", learning_rate, episodes);
+        int window = Integer.parseInt(AuxMethods.getOption(args, "stop-stable", "0"));
+        long tolerance = Long.parseLong(AuxMethods.getOption(args, "stop-changes", "0"));
+        int reportEvery = Integer.parseInt(AuxMethods.getOption(args, "report-every", "0"));
         
-        //The environment to interact with.
-        //This is where we get our reward values and next states for our steps from.
-        environment env = new environment(args[0]);
+        learner.metrics.exportFromArgs(args);
+        int threads = Integer.parseInt(AuxMethods.getOption(args, "threads", "1"));
+        String sharing = AuxMethods.getOption(args, "sharing", "hogwild");
+        int first = done;
+        //The changes of the greedy policy counted by the metrics at the last report.
+        long reported = 0;
+        boolean stable = false;
         
-        long totalTime = 0;
-        int totalSteps = 0;
-        for(int e = 1; e <= episodes; e++) {
+        if(threads > 1) {
             long startTime = System.nanoTime();
-            //Start from the starting state of the maze.
-            env.reset();
+            long totalSteps = 0;
+            int windowStart = done;
+            long windowChanges = 0;
+            
+            //The episodes are run in batches that end where a checkpoint, a report or a check of the policy is due.
+            while(done < episodes && !stable) {
+                int end = episodes;
+                if(checkpointer != null)
+                    end = Math.min(end, nextMultiple(done, every));
+                if(reportEvery > 0)
+                    end = Math.min(end, nextMultiple(done, reportEvery));
+                if(window > 0)
+                    end = Math.min(end, nextMultiple(done, window));
+                long changes = learner.metrics.getPolicyChanges();
+                totalSteps += learner.learnParallel(done, end - done, threads, sharing, epsilons, alphas);
+                windowChanges += learner.metrics.getPolicyChanges() - changes;
+                done = end;
+                if(window > 0 && done % window == 0) {
+                    stable = done - windowStart == window && windowChanges <= tolerance;
+                    windowStart = done;
+                    windowChanges = 0;
+                }
+                reported = learner.checkpoint(out, done, episodes, stable, reportEvery, reported, epsilons, alphas, checkpointer, every);
+            }
+            long totalTime = System.nanoTime() - startTime;
+            int run = done - first;
             
-            if(episode_length == 0)
-                break;
+            if(stable)
+                out.println("Stopped after episode " + done + ": the greedy policy is stable.");
+            out.println("Total time elapsed = " + totalTime);
+            out.println("Average number of steps = " + ((double)totalSteps/(double)run));
+            out.println("Episodes per second = " + (run / (totalTime / 1e9)));
+            out.println("Steps per second = " + (totalSteps / (totalTime / 1e9)));
+        }
+        else {
+            //The environment to interact with.
+            //This is where we get our reward values and next states for our steps from.
+            environment env = new environment(maze, learner.rng);
             
-            boolean isTerminal = qLearn(env);
-            int length = 1;
-            totalSteps++;
+            //The changes of the greedy policy in each of the last W episodes, and their sum.
+            long[] recent = new long[Math.max(1, window)];
+            long windowChanges = 0;
             
-            while(!isTerminal && length < episode_length) {
-                isTerminal = qLearn(env);
-                length++;
-                totalSteps++;
+            long totalTime = 0;
+            int totalSteps = 0;
+            while(done < episodes && !stable) {
+                long startTime = System.nanoTime();
+                
+                if(episode_length == 0)
+                    break;
+                
+                long changes = learner.metrics.getPolicyChanges();
+                totalSteps += learner.runEpisode(env, epsilons.at(done), alphas.at(done));
+                long time = System.nanoTime();
+                totalTime += (time - startTime);
+                done++;
+                
+                if(window > 0) {
+                    changes = learner.metrics.getPolicyChanges() - changes;
+                    windowChanges += changes - recent[done % window];
+                    recent[done % window] = changes;
+                    stable = done - first >= window && windowChanges <= tolerance;
+                }
+                reported = learner.checkpoint(out, done, episodes, stable, reportEvery, reported, epsilons, alphas, checkpointer, every);
             }
-            long time = System.nanoTime();
-            totalTime += (time - startTime);
-            updateValues();
+            
+            if(stable)
+                out.println("Stopped after episode " + done + ": the greedy policy is stable.");
+            out.println("Total time elapsed = " + totalTime);
+            out.println("Average number of steps = " + ((double)totalSteps/(double)(stable ? done - first : episodes - first)));
         }
         
-        System.out.println("Total time elapsed = " + totalTime);
-        System.out.println("Average number of steps = " + ((double)totalSteps/(double)episodes));
-        
+        if(checkpointer != null)
+            checkpointer.close();
+        learner.metrics.close();
+        learner.updateValues();
+        return learner;
+    }
+
+    /**
+     * Refreshes the values and the policy and prints a report or saves a checkpoint if one is due after the given episode.
+     * The values and the policy are only needed there, so they are not refreshed after every episode.
+     * @param out
+     * @param e the number of episodes done
+     * @param episodes the number of episodes of the run
+     * @param stopping true if the run stops after this episode
+     * @param reportEvery report every this many episodes, 0 for never
+     * @param reported the changes of the greedy policy counted by the metrics at the last report
+     * @param epsilons
+     * @param alphas
+     * @param checkpointer null if no checkpoints are taken
+     * @param every take a checkpoint every this many episodes
+     * @return the changes of the greedy policy counted by the metrics at the last report, including this one
+     */
+    private long checkpoint(PrintStream out, int e, int episodes, boolean stopping, int reportEvery, long reported,
+            Schedule epsilons, Schedule alphas, Checkpointer checkpointer, int every) throws Exception {
+        boolean report = reportEvery > 0 && e % reportEvery == 0;
+        boolean save = checkpointer != null && (e % every == 0 || e == episodes || stopping);
+        if(!report && !save)
+            return reported;
         updateValues();
-        AuxMethods.writeValues(args[1], maze);
-        AuxMethods.writeQValues(args[2], maze);
-        AuxMethods.writePolicyFile(args[3], maze);
+        if(report) {
+            long changes = metrics.getPolicyChanges();
+            int[] start = grid.maze.start();
+            out.println("Episode " + e + " done. Epsilon: " + epsilons.at(e - 1) + " Learning rate: " + alphas.at(e - 1)
+                    + " Policy changes: " + (changes - reported)
+                    + (start == null ? "" : " Start value: " + grid.values[grid.maze.index(start[0], start[1])]));
+            reported = changes;
+        }
+        if(save)
+            checkpointer.save(grid.q, e, rng.state);
+        return reported;
+    }
+
+    /**
+     * Returns the smallest multiple of k greater than n.
+     */
+    private static int nextMultiple(int n, int k) {
+        return (n / k + 1) * k;
+    }
+
+    /**
+     * Makes the learner store every transition in the buffer and replay the given number of stored ones after every step.
+     * @param buffer the buffer, null to stop replaying
+     * @param updates the number of transitions replayed per step
+     */
+    void setReplay(ReplayBuffer buffer, int updates) {
+        replay = buffer;
+        replayUpdates = updates;
+        batch = new int[updates];
+        weights = new double[updates];
+    }
+
+    /**
+     * Runs the given number of episodes on K worker threads. Each worker has its own environment
+     * and random number generator and claims episodes until none are left; all of them update the shared Q table.
+     * @param first the number of episodes done before these, which gives the number of each of them in the schedules
+     * @param episodes the number of episodes
+     * @param threads the number of workers
+     * @param sharing "hogwild" or "striped"
+     * @param epsilons the epsilon of every episode
+     * @param alphas the learning rate of every episode
+     * @return the total number of steps taken
+     */
+    long learnParallel(final int first, final int episodes, int threads, String sharing, final Schedule epsilons, final Schedule alphas)
+            throws InterruptedException {
+        //With "striped", updates of the states in one band of rows are made under the same lock.
+        final Object[] locks;
+        if(sharing.equals("striped")) {
+            locks = new Object[Math.min(grid.maze.rows, threads * 16)];
+            for(int i = 0; i < locks.length; i++)
+                locks[i] = new Object();
+        }
+        else if(sharing.equals("hogwild")) {
+            locks = null;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown sharing mode " + sharing);
+        }
+        if(replay != null)
+            throw new IllegalArgumentException("Transitions can only be replayed with one thread.");
+        
+        final AtomicInteger remaining = new AtomicInteger(episodes);
+        final LongAdder totalSteps = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        
+        for(int k = 0; k < threads; k++) {
+            final Rng workerRng = new Rng(rng.nextLong());
+            final environment env = new environment(grid.maze, workerRng);
+            workers[k] = new Thread(() -> {
+                long bytes = Metrics.allocatedBytes();
+                Transition t = new Transition();
+                long steps = 0;
+                int r;
+                while(episode_length > 0 && (r = remaining.getAndDecrement()) > 0) {
+                    int e = first + episodes - r;
+                    steps += runEpisode(env, workerRng, t, locks, epsilons.at(e), alphas.at(e));
+                }
+                totalSteps.add(steps);
+                metrics.workerAllocated(Metrics.allocatedBytes() - bytes);
+            }, "q-learning-worker-" + k);
+            workers[k].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+        return totalSteps.sum();
+    }
+
+    /**
+     * Runs one episode from the starting state of the maze with the learner's own random number generator.
+     * @param env
+     * @return the number of steps taken
+     */
+    int runEpisode(environment env) {
+        return runEpisode(env, epsilon, learning_rate);
+    }
+
+    /**
+     * Runs one episode with the given epsilon and learning rate with the learner's own random number generator.
+     * @param env
+     * @param epsilon
+     * @param alpha the learning rate
+     * @return the number of steps taken
+     */
+    int runEpisode(environment env, double epsilon, double alpha) {
+        return runEpisode(env, rng, transition, null, epsilon, alpha);
+    }
+
+    /**
+     * Runs one episode from the starting state of the maze.
+     * @param env
+     * @param rng
+     * @param t the transition filled in by every step
+     * @param locks the locks of the row bands, null if the Q table is updated without locking
+     * @param epsilon
+     * @param alpha the learning rate
+     * @return the number of steps taken
+     */
+    private int runEpisode(environment env, Rng rng, Transition t, Object[] locks, double epsilon, double alpha) {
+        //Start from the starting state of the maze.
+        env.reset();
+        
+        int changes = qLearn(env, rng, t, locks, epsilon, alpha);
+        int length = 1;
+        
+        while(!t.isTerminal && length < episode_length) {
+            changes += qLearn(env, rng, t, locks, epsilon, alpha);
+            length++;
+        }
+        metrics.episode(length, t.isTerminal, replay == null ? length : length * (1L + replayUpdates), changes);
+        return length;
     }
 
     /**
@@ -105,52 +420,101 @@ public class q_learning {
      * to iterate from a "beginning" to an "end". All we can do is pick an action from 
      * our current state and ask the environment to give us info about that one state-action pair.
      * @param env The environment object that simulates the env the agent is exploring.
-     * @return Returns if the next state at the end of an episode is a terminal state.
+     * @param rng The random number generator of the agent.
+     * @param stateInfo The transition filled in by the step.
+     * @param locks The locks of the row bands, null if the Q table is updated without locking.
+     * @param epsilon
+     * @param learning_rate alpha
+     * @return Returns the number of states whose greedy action was seen to change; stateInfo tells
+     *         if the next state is a terminal state.
      */
-    private static boolean qLearn(environment env) {
-        int[] currentState = env.getCurrentState();
+    private int qLearn(environment env, Rng rng, Transition stateInfo, Object[] locks, double epsilon, double learning_rate) {
+        double[] q = grid.q;
         
         //The current state of the agent.
-        State s = maze[currentState[0]][currentState[1]];
+        int s = env.getCurrentCell();
         
         //Pick a state. Here is the eternal quest of finding the optimal trade-off between exploration and exploitation.
         //With a prob of epsilon pick a random action from the current state. With a prob (1-epsilon), pick the optimal action.
-        int best_current_policy = max(s.q);
-        s.optimal_policy = best_current_policy;
+        int best_current_policy = max(q, s * 4);
+        //A change of the greedy action of a state made by an update is counted the next time the state is seen;
+        //the first time a state is seen counts as a change too.
+        int changes = seen[s] == best_current_policy ? 0 : 1;
+        seen[s] = (byte)best_current_policy;
+        grid.policy[s] = (byte)best_current_policy;
         
-        int action = pickAction(s.optimal_policy, epsilon);
+        int action = pickAction(best_current_policy, epsilon, rng);
         
         //One interaction with the environment.
         //From the current state of the agent take a single step; the direction of which is determined by the current policy at this state.
         
-        int[] stateInfo = env.step(action);
-        State s_prime = maze[stateInfo[0]][stateInfo[1]];
+        env.step(action, stateInfo);
+        int s_prime = stateInfo.cell;
         
         //Determine the best policy at s_prime.
-        int best_policy = max(s_prime.q);
-        s_prime.optimal_policy = best_policy;
+        int best_policy = max(q, s_prime * 4);
+        if(seen[s_prime] != best_policy)
+            changes++;
+        seen[s_prime] = (byte)best_policy;
+        grid.policy[s_prime] = (byte)best_policy;
+        
+        int sa = s * 4 + action;
+        if(locks == null) {
+            q[sa] = ((1.0 - learning_rate) * q[sa]) + ((learning_rate) * (stateInfo.reward + (gamma) * q[s_prime * 4 + best_policy]));
+        }
+        else {
+            Object lock = locks[(int)((long)(s / grid.maze.cols) * locks.length / grid.maze.rows)];
+            synchronized(lock) {
+                q[sa] = ((1.0 - learning_rate) * q[sa]) + ((learning_rate) * (stateInfo.reward + (gamma) * q[s_prime * 4 + best_policy]));
+            }
+        }
+        if(replay != null) {
+            replay.add(s, action, stateInfo.reward, s_prime, stateInfo.isTerminal);
+            replay(rng, learning_rate);
+        }
+        return changes;
+    }
+
+    /**
+     * Samples a batch of stored transitions and applies the Q-Learning update to each of them again,
+     * scaled by its importance sampling weight, and updates their priorities with the new TD errors.
+     * @param rng The random number generator of the agent.
+     * @param learning_rate alpha
+     */
+    private void replay(Rng rng, double learning_rate) {
+        double[] q = grid.q;
+        int n = replay.sample(rng, replayUpdates, batch, weights);
         
-        s.q[action] = ((1.0 - learning_rate) * s.q[action]) + ((learning_rate) * (stateInfo[2] + (gamma) * s_prime.q[best_policy]));
-        return (stateInfo[3] == 1);
+        for(int k = 0; k < n; k++) {
+            int i = batch[k];
+            int sa = replay.states[i] * 4 + replay.actions[i];
+            int s_prime = replay.nextStates[i];
+            double target = replay.rewards[i];
+            if(!replay.isTerminal(i))
+                target += gamma * q[s_prime * 4 + max(q, s_prime * 4)];
+            double error = target - q[sa];
+            q[sa] += learning_rate * weights[k] * error;
+            replay.update(i, error);
+        }
     }
 
     /**
      * Updates the V(S), and optimal_policy values.
      */
-    private static void updateValues() {
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
-                
-                for(int a = 0; a < 4; a++) {
-                    if(s.isBlocked || s.isGoal) {
-                        s.q[a] = 0;
-                        continue;
-                    }
-                }
-                s.optimal_policy = max(s.q);
-                s.value = s.q[s.optimal_policy];
+    void updateValues() {
+        Maze m = grid.maze;
+        double[] q = grid.q;
+        
+        for(int s = 0; s < m.cells(); s++) {
+            int base = s * 4;
+            
+            if(m.isBlocked(s) || m.isGoal(s)) {
+                for(int a = 0; a < 4; a++)
+                    q[base + a] = 0;
             }
+            int policy = max(q, base);
+            grid.policy[s] = (byte)policy;
+            grid.values[s] = q[base + policy];
         }
     }
     
@@ -158,11 +522,12 @@ public class q_learning {
      * Pick an action and return.
      * @param optimal_policy the best policy at this state
      * @param epsilon
+     * @param rng the random number generator of the agent
      */
-    private static int pickAction(int optimal_policy, double epsilon) {
-        double prob = Math.random();
+    private int pickAction(int optimal_policy, double epsilon, Rng rng) {
+        double prob = rng.nextDouble();
         if(prob < epsilon) {
-            return randomAction();
+            return randomAction(rng);
         }
         else
             return optimal_policy;
@@ -170,24 +535,26 @@ public class q_learning {
 
     /**
      * Returns a random action (indicated by a number in {0,1,2,3}).
+     * @param rng the random number generator of the agent
      * @return An integer between 0 and 3
      */
-    private static int randomAction() {
-        return new Random().nextInt(4);
+    private static int randomAction(Rng rng) {
+        return rng.nextInt(4);
     }
 
     /**
-     * Find the index with the maximum value in the array.
+     * Find the action with the maximum value among the four Q values starting at 'base'.
      * @param q the array
-     * @return index The index where the maximum element sits.
+     * @param base index of the first Q value of the state
+     * @return index The action whose Q value is the maximum.
      */
-    private static int max(double[] q) {
+    private static int max(double[] q, int base) {
         double max = Integer.MIN_VALUE;
         int index = 0;
         
-        for(int i = 0; i < q.length; i++) {
-            if(q[i] > max) {
-                max = q[i];
+        for(int i = 0; i < 4; i++) {
+            if(q[base + i] > max) {
+                max = q[base + i];
                 index = i;
             }
         }
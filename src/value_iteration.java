@@ -1,3 +1,9 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * This class implements the Value Iteration algorithm in a deterministic
  * setting (i.e. Prob(s(t) | a(t-1), s(t-1)) = 1).
@@ -7,19 +13,96 @@
  */
 public class value_iteration {
     /**
-     * The 2D array representing the maze to solve.
+     * The grid holding the maze to solve and the values, Q values and policy of this solver.
      */
-    static State[][] maze;
+    final Grid grid;
     
     /**
-     * Number of epochs.
+     * The discount factor.
      */
-    private static int epochs;
+    private final double gamma;
     
     /**
-     * The discount factor.
+     * The transition model of a maze whose moves slip or have costs, null if every move is deterministic and costs 1.
+     */
+    private final Transitions transitions;
+    
+    /**
+     * The pool running the sweeps over row bands, null when running on a single thread.
+     * Several solvers can share one pool.
+     */
+    private final ForkJoinPool pool;
+    
+    /**
+     * The number of rows in a band of a parallel sweep.
+     */
+    private final int grain;
+    
+    /**
+     * True to update the values in place (Gauss-Seidel) instead of into a second buffer (Jacobi).
+     */
+    private boolean inPlace;
+    
+    /**
+     * The order of the in-place sweeps: "row-major", "alternating" or "red-black".
+     */
+    private String order = "row-major";
+    
+    /**
+     * The side length of the square tiles the in-place sweeps go through.
+     */
+    private int tile = 64;
+    
+    /**
+     * The number of sweeps done so far.
+     */
+    private int sweeps;
+    
+    /**
+     * The kernel of the Jacobi sweeps over a padded grid, null to sweep with computeQ,
+     * and whether it holds the current values.
+     */
+    private BellmanKernel kernel;
+    private boolean kernelLoaded;
+    
+    /**
+     * The second value buffer; each sweep reads grid.values and writes here, then the two are swapped.
+     */
+    private double[] next;
+    
+    /**
+     * The largest change of a value in each row during the last sweep.
+     */
+    private double[] rowResiduals;
+    
+    /**
+     * The number of states whose value changed in each row during the last sweep.
+     */
+    private int[] rowChanges;
+    
+    /**
+     * The number of states whose value changed during the last sweep.
+     */
+    long changed;
+    
+    /**
+     * The metrics of the sweeps of this solver.
+     */
+    final Metrics metrics = new Metrics();
+
+    /**
+     * Constructor for a solver of the given maze. The maze is only read, so it can be shared by many solvers.
+     * @param maze
+     * @param gamma the discount factor
+     * @param pool the pool to run the sweeps on, null to run them on the calling thread
      */
-    private static double gamma;
+    public value_iteration(Maze maze, double gamma, ForkJoinPool pool) {
+        this.grid = new Grid(maze);
+        this.gamma = gamma;
+        this.transitions = maze.isSimple() ? null : new Transitions(maze);
+        this.pool = maze.rows > 1 ? pool : null;
+        this.grain = pool == null ? maze.rows : RowBands.grain(maze.rows, pool.getParallelism());
+    }
 
     /**
      * Requires command line arguments.
@@ -29,79 +112,482 @@ public class value_iteration {
      * args[3] - Path to an output file to which the optimal policy of each state is written.
      * args[4] - Number of epochs for which the Value Iteration algorithm needs to run.
      * args[5] - Discount Factor (Gamma).
+     * Optional arguments:
+     * --threads=N - Number of threads sweeping the maze (defaults to the number of processors).
+     * --epsilon=E - Stop as soon as the Bellman residual of a sweep drops below E; args[4] is then the maximum number of epochs.
+     * --solver=S - "sync" (default) sweeps every state each epoch, "prioritized" runs prioritized sweeping
+     *   from the goals and "bfs" computes the values from the distance of each state to the nearest goal.
+     *   The last two run until the values have converged and ignore the epoch options.
+     * --sweep=S - "jacobi" (default) computes every value of a sweep from those of the previous sweep,
+     *   "gauss-seidel" updates the values in place, tile by tile, which needs fewer sweeps to converge.
+     * --order=O - Order of the Gauss-Seidel sweeps: "row-major" (default), "alternating" which goes backwards
+     *   every other sweep, or "red-black" which updates the two colours of a checkerboard one after the other,
+     *   the only order that runs on several threads.
+     * --tile=N - Side length of the tiles of the Gauss-Seidel sweeps (defaults to 64).
+     * --kernel=K - Kernel of the Jacobi sweeps: "scalar", "padded" which sweeps a padded copy of the values
+     *   with a wall mask per direction (default, "scalar" for mazes with slips or costs), or "vector" which does so
+     *   with the Vector API; see BellmanKernel.
+     * --start=S - Values the sweeps start from: "zero" (default) or "lower", the value of a state that never reaches
+     *   a goal. From below, improvements flow out from the goals, which a Gauss-Seidel sweep carries along many
+     *   states at once; from zero every state next to a wall only drops by one discount step per sweep whatever the order.
+     *   "multigrid" starts from the values of a coarse maze made of --block=N sided blocks (defaults to 8), which are
+     *   those of the full maze, so the sweeps only confirm them; see Multigrid.
+     * --threshold=T - Gain below which prioritized sweeping stops backing up a state (defaults to 0).
+     * --edits=path - File of cell edits applied once the maze is solved, one "x y c" per line where c is the new
+     *   cell as in a maze file; only the affected states are solved again. Requires --solver=prioritized or bfs.
+     * --report=L - Progress printed after every epoch: "none", "summary" (default) with the residual, time and
+     *   number of changed states, or "full" which also dumps the value of every state.
+     * --dump=path - File the "full" dumps are written to on a background thread (defaults to the standard output, written
+     *   between the summaries).
+     * --dump-every=N - Dump the values every N epochs (defaults to 1).
+     * --metrics=path - File to which a snapshot of the metrics is written every --metrics-every=ms (defaults to 1000), as JSON lines.
+     * --jmx=name - Expose the metrics over JMX as maze:type=Metrics,name=<name>.
+     * --trace=path - File to which the summary of each epoch is written, one JSON object per line.
+     * --format=F - "text" (default) or "binary" for the output files; see BinaryResults.
+     * --checkpoint=path - File to which the values and the number of epochs done are saved every
+     *   --checkpoint-every=N epochs (defaults to 100) and at the end; see Checkpointer. Only used by the "sync" solver.
+     * --resume=path - Continue the run saved in the given checkpoint; args[4] is the total number of epochs, including those already done.
      * Sample arguments - ./src/medium_maze.txt ./src/Values.txt ./src/QValues.txt ./src/Policy.txt 10 0.9
      * @param args
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
-        AuxMethods.getMaze(args[0], "VI");
+        Maze maze = AuxMethods.getMaze(args[0]);
+        
+        int threads = Integer.parseInt(AuxMethods.getOption(args, "threads", "" + Runtime.getRuntime().availableProcessors()));
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        value_iteration vi = solve(maze, args, pool, System.out);
+        if(pool != null)
+            pool.shutdown();
         
-        epochs = Integer.parseInt(args[4]);
-        gamma = Double.parseDouble(args[5]);
+        AuxMethods.writeResults(args, args[1], args[2], args[3], vi.grid, vi.gamma);
+    }
+
+    /**
+     * Solves a maze that has already been loaded as configured by the command line arguments of main;
+     * the paths in args[0] to args[3] and --threads are not used.
+     * @param maze
+     * @param args
+     * @param pool the pool to run the sweeps on, null to run them on the calling thread
+     * @param out the stream the progress is printed to
+     * @return the solver, holding the values, Q values and policy
+     * @throws Exception
+     */
+    static value_iteration solve(Maze maze, String[] args, ForkJoinPool pool, PrintStream out) throws Exception {
+        int epochs = Integer.parseInt(args[4]);
+        double gamma = Double.parseDouble(args[5]);
+        value_iteration vi = new value_iteration(maze, gamma, pool);
+        vi.setSweep(AuxMethods.getOption(args, "sweep", "jacobi"), AuxMethods.getOption(args, "order", "row-major"),
+                Integer.parseInt(AuxMethods.getOption(args, "tile", "64")));
+        String kernel = AuxMethods.getOption(args, "kernel", maze.isSimple() ? "padded" : "scalar");
+        if(!kernel.equals("scalar"))
+            vi.setKernel(BellmanKernel.create(kernel, maze, gamma));
+        String start = AuxMethods.getOption(args, "start", "zero");
+        if(start.equals("lower")) {
+            vi.startFromLowerBound();
+        }
+        else if(start.equals("multigrid")) {
+            long startTime = System.nanoTime();
+            int portals = vi.startFromMultigrid(Integer.parseInt(AuxMethods.getOption(args, "block", "8")));
+            out.println("Coarse solve over " + portals + " portals took " + (System.nanoTime() - startTime));
+        }
+        else if(!start.equals("zero"))
+            throw new IllegalArgumentException("Unknown start " + start);
+        
+        String solver = AuxMethods.getOption(args, "solver", "sync");
+        if(!solver.equals("sync")) {
+            long startTime = System.nanoTime();
+            long work = vi.solveFrontier(solver, Double.parseDouble(AuxMethods.getOption(args, "threshold", "0")));
+            out.println((solver.equals("bfs") ? "States reaching a goal: " : "Backups done: ") + work);
+            out.println("Total running time of " + solver + " = " + (System.nanoTime() - startTime));
+            String edits = AuxMethods.getOption(args, "edits", null);
+            if(edits != null) {
+                startTime = System.nanoTime();
+                out.println("States solved again: " + vi.resolve(edits));
+                out.println("Total running time of the re-solve = " + (System.nanoTime() - startTime));
+            }
+            return vi;
+        }
+        double epsilon = Double.parseDouble(AuxMethods.getOption(args, "epsilon", "-1"));
+        ProgressReporter reporter = LevelReporter.fromArgs(args, out);
+        vi.metrics.exportFromArgs(args);
         long timeElapsed = 0;
         
-        for(int e = 1; e <= epochs; e++) {
+        int done = 0;
+        String resume = AuxMethods.getOption(args, "resume", null);
+        if(resume != null) {
+            Checkpointer.Snapshot snapshot = Checkpointer.read(resume, Checkpointer.VALUES, maze, gamma);
+            System.arraycopy(snapshot.table, 0, vi.grid.values, 0, snapshot.table.length);
+            done = (int)snapshot.counter;
+            vi.sweeps = done; //Every epoch is one sweep, and the alternating order goes by their number.
+            out.println("Resuming after epoch " + done);
+        }
+        Checkpointer checkpointer = Checkpointer.fromArgs(args, Checkpointer.VALUES, maze, gamma);
+        int every = Integer.parseInt(AuxMethods.getOption(args, "checkpoint-every", "100"));
+        
+        for(int e = done + 1; e <= epochs; e++) {
             long startTime = System.nanoTime();
             
-            computeVI();
+            double residual = vi.computeVI();
             
             long endTime = System.nanoTime();
-            System.out.println("Epoch done. Time elapsed: " + (endTime - startTime));
             timeElapsed += (endTime - startTime);
-            AuxMethods.printMaze(maze);
-            System.out.println("-------------------------");
+            reporter.epoch(e, residual, vi.changed, endTime - startTime, vi.grid);
+            
+            boolean converged = residual < epsilon;
+            if(checkpointer != null && (e % every == 0 || e == epochs || converged))
+                checkpointer.save(vi.grid.values, e, 0);
+            if(converged) {
+                out.println("Converged after " + e + " epochs.");
+                break;
+            }
         }
-        System.out.println("Total running time of VI = " + timeElapsed);
-        computeQ();
+        if(checkpointer != null)
+            checkpointer.close();
+        reporter.close();
+        vi.metrics.close();
+        out.println("Total running time of VI = " + timeElapsed);
+        vi.computeQ();
+        return vi;
+    }
+
+    /**
+     * Solves the maze with one of the solvers of FrontierSolver and computes Q and the optimal policy.
+     * @param solver "prioritized" or "bfs"
+     * @param threshold
+     * @return the number of backups done by prioritized sweeping or the number of states reaching a goal
+     */
+    long solveFrontier(String solver, double threshold) {
+        long work;
         
-        AuxMethods.writeValues(args[1], maze);
-        AuxMethods.writeQValues(args[2], maze);
-        AuxMethods.writePolicyFile(args[3], maze);
+        if(solver.equals("prioritized"))
+            work = FrontierSolver.prioritizedSweeping(grid, gamma, threshold);
+        else if(solver.equals("bfs"))
+            work = FrontierSolver.goalDistances(grid, gamma);
+        else
+            throw new IllegalArgumentException("Unknown solver " + solver);
+        computeQ();
+        return work;
+    }
+
+    /**
+     * Applies the cell edits in the given file to the solved maze and solves again only
+     * the states they affect; see FrontierSolver.resolve.
+     * @param filePath file with one edit "x y c" per line, c being the new cell as in a maze file
+     * @return the number of states solved again
+     */
+    long resolve(String filePath) throws Exception {
+        int[] cells = new int[16];
+        char[] types = new char[16];
+        int n = 0;
+        BufferedReader br = new BufferedReader(new FileReader(filePath));
+        String line;
+        while((line = br.readLine()) != null) {
+            line = line.trim();
+            if(line.isEmpty())
+                continue;
+            String[] parts = line.split("\\s+");
+            int x = Integer.parseInt(parts[0]);
+            int y = Integer.parseInt(parts[1]);
+            if(x < 0 || y < 0 || x >= grid.maze.rows || y >= grid.maze.cols)
+                throw new IllegalArgumentException("Edit outside the maze: " + line);
+            if(n == cells.length) {
+                cells = Arrays.copyOf(cells, n * 2);
+                types = Arrays.copyOf(types, n * 2);
+            }
+            cells[n] = grid.maze.index(x, y);
+            types[n++] = parts[2].charAt(0);
+        }
+        br.close();
+        cells = Arrays.copyOf(cells, n);
+        return FrontierSolver.resolve(grid, grid.maze.edit(cells, Arrays.copyOf(types, n)), cells, gamma);
+    }
+
+    /**
+     * Selects how the values are updated by computeVI.
+     * @param sweep "jacobi" or "gauss-seidel"
+     * @param order the order of the Gauss-Seidel sweeps: "row-major", "alternating" or "red-black"
+     * @param tile the side length of the tiles of the Gauss-Seidel sweeps
+     */
+    void setSweep(String sweep, String order, int tile) {
+        if(!sweep.equals("jacobi") && !sweep.equals("gauss-seidel"))
+            throw new IllegalArgumentException("Unknown sweep " + sweep);
+        if(!order.equals("row-major") && !order.equals("alternating") && !order.equals("red-black"))
+            throw new IllegalArgumentException("Unknown sweep order " + order);
+        if(tile < 1)
+            throw new IllegalArgumentException("The tile size must be positive.");
+        if(sweep.equals("gauss-seidel") && transitions != null)
+            throw new IllegalArgumentException("The Gauss-Seidel sweep needs deterministic moves that cost 1.");
+        this.inPlace = sweep.equals("gauss-seidel");
+        this.order = order;
+        this.tile = tile;
+    }
+
+    /**
+     * Sets the kernel of the Jacobi sweeps.
+     * @param kernel the kernel, null to sweep with computeQ
+     */
+    void setKernel(BellmanKernel kernel) {
+        if(kernel != null && transitions != null)
+            throw new IllegalArgumentException("The sweep kernels need deterministic moves that cost 1.");
+        this.kernel = kernel;
+        this.kernelLoaded = false;
+    }
+
+    /**
+     * Sets the value of every open state that is not a goal to the value of a state that never reaches a goal,
+     * a lower bound of its converged value, so that the sweeps raise the values instead of lowering them.
+     */
+    void startFromLowerBound() {
+        if(transitions != null)
+            throw new IllegalArgumentException("The lower bound needs deterministic moves that cost 1.");
+        Maze m = grid.maze;
+        double unreachable = FrontierSolver.unreachableValue(gamma);
+        for(int cell = 0; cell < m.cells(); cell++)
+            grid.values[cell] = (m.isBlocked(cell) || m.isGoal(cell)) ? 0 : unreachable;
+    }
+
+    /**
+     * Sets the values to those computed on a coarse version of the maze made of square blocks; see Multigrid.
+     * @param block the side length of the blocks
+     * @return the number of portals of the coarse maze that reach a goal
+     */
+    int startFromMultigrid(int block) {
+        if(transitions != null)
+            throw new IllegalArgumentException("The multigrid start needs deterministic moves that cost 1.");
+        return Multigrid.prolong(grid.maze, gamma, block, grid.values);
     }
 
     /**
      * This method computes one iteration of the Value Iteration algorithm.
+     * With a Jacobi sweep the updated values are written to the second buffer, which then becomes grid.values;
+     * with a Gauss-Seidel sweep they are written to grid.values and Q is only computed by computeQ().
+     * @return the Bellman residual of the sweep, i.e. the largest change of a value
+     */
+    double computeVI() {
+        long startTime = System.nanoTime();
+        if(rowResiduals == null) {
+            rowResiduals = new double[grid.maze.rows];
+            rowChanges = new int[grid.maze.rows];
+        }
+        
+        if(!inPlace) {
+            if(next == null)
+                next = new double[grid.values.length];
+            final double[] values = grid.values;
+            final double[] updated = next;
+            
+            if(kernel != null) {
+                if(!kernelLoaded) {
+                    kernel.load(values);
+                    kernelLoaded = true;
+                }
+                if(pool == null)
+                    kernel.sweep(0, grid.maze.rows, updated, grid.policy, rowResiduals, rowChanges);
+                else
+                    pool.invoke(new RowBands((from, to) -> kernel.sweep(from, to, updated, grid.policy, rowResiduals, rowChanges), 0, grid.maze.rows, grain));
+                kernel.swap();
+            }
+            else if(pool == null)
+                computeQ(0, grid.maze.rows, values, updated);
+            else
+                pool.invoke(new RowBands((from, to) -> computeQ(from, to, values, updated), 0, grid.maze.rows, grain));
+            
+            next = values;
+            grid.values = updated;
+        }
+        else if(order.equals("red-black")) {
+            //A state only depends on its four neighbours, which have the other colour,
+            //so all the states of one colour can be updated at the same time.
+            for(int color = 0; color < 2; color++) {
+                final int c = color;
+                if(pool == null)
+                    gaussSeidel(0, grid.maze.rows, c, false);
+                else
+                    pool.invoke(new RowBands((from, to) -> gaussSeidel(from, to, c, false), 0, grid.maze.rows, grain));
+            }
+        }
+        else {
+            gaussSeidel(0, grid.maze.rows, -1, order.equals("alternating") && (sweeps & 1) == 1);
+        }
+        sweeps++;
+        
+        double residual = 0;
+        changed = 0;
+        for(int i = 0; i < rowResiduals.length; i++) {
+            residual = Math.max(residual, rowResiduals[i]);
+            changed += rowChanges[i];
+        }
+        metrics.sweep(System.nanoTime() - startTime, changed);
+        return residual;
+    }
+
+    /**
+     * Returns the largest change of a value in the rows [from, to) during the last sweep.
+     * @param from
+     * @param to
+     */
+    double residual(int from, int to) {
+        double residual = 0;
+        for(int i = from; i < to; i++)
+            residual = Math.max(residual, rowResiduals[i]);
+        return residual;
+    }
+
+    /**
+     * Returns the number of states in the rows [from, to) whose value changed during the last sweep.
+     * @param from
+     * @param to
+     */
+    long changed(int from, int to) {
+        long changes = 0;
+        for(int i = from; i < to; i++)
+            changes += rowChanges[i];
+        return changes;
+    }
+
+    /**
+     * Computes the correct values of Q and the optimal policy (at the end of all epochs).
+     */
+    void computeQ() {
+        computeQ(0, grid.maze.rows, grid.values, null);
+    }
+
+    /**
+     * Computes Q and the optimal policy of every state in the rows [from, to) from the given values
+     * and, if updated is not null, stores the value of the optimal policy in it
+     * and the largest change of a value and the number of changed values of each row in rowResiduals and rowChanges.
+     * Only entries of these rows are written, so bands of rows can be computed in parallel.
+     * @param from
+     * @param to
+     * @param values
+     * @param updated
      */
-    private static void computeVI() {
-        //Temporary array to hold the updated value functions that come from this epoch.
-        double[][] values = new double[maze.length][maze[0].length];
+    private void computeQ(int from, int to, double[] values, double[] updated) {
+        if(transitions != null) {
+            computeQ(transitions, from, to, values, updated);
+            return;
+        }
+        Maze m = grid.maze;
+        double[] q = grid.q;
         
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
+        for(int i = from; i < to; i++) {
+            double residual = 0;
+            int changes = 0;
+            for(int j = 0; j < m.cols; j++) {
+                int cell = m.index(i, j);
+                int base = cell * 4;
+                boolean terminal = m.isBlocked(cell) || m.isGoal(cell);
                 
                 for(int a = 0; a < 4; a++) {
-                    if(s.isBlocked || s.isGoal) {
-                        s.q[a] = 0;
+                    if(terminal) {
+                        q[base + a] = 0;
                         continue;
                     }
-                    s.q[a] = getImmediateReward() + ((gamma) * s_prime(i, j, a).value);
+                    q[base + a] = getImmediateReward() + ((gamma) * values[s_prime(i, j, a)]);
                     //s_prime is the state that the agent reaches on going in the specified direction.
                 }
-                s.optimal_policy = max(s.q);
-                values[i][j] = s.q[s.optimal_policy];
+                int policy = max(q, base);
+                grid.policy[cell] = (byte)policy;
+                if(updated != null) {
+                    updated[cell] = q[base + policy];
+                    residual = Math.max(residual, Math.abs(updated[cell] - values[cell]));
+                    if(updated[cell] != values[cell])
+                        changes++;
+                }
+            }
+            if(updated != null) {
+                rowResiduals[i] = residual;
+                rowChanges[i] = changes;
             }
         }
-        AuxMethods.copy(values);
     }
 
     /**
-     * Computes the correct values of Q and the optimal policy (at the end of all epochs).
+     * Same as computeQ(from, to, values, updated), but sums over the transition model of a maze whose moves slip or have costs.
      */
-    private static void computeQ() {
-        for(int i = 0; i < maze.length; i++) {
-            for(int j = 0; j < maze[0].length; j++) {
-                State s = maze[i][j];
+    private void computeQ(Transitions model, int from, int to, double[] values, double[] updated) {
+        Maze m = grid.maze;
+        double[] q = grid.q;
+        
+        for(int i = from; i < to; i++) {
+            double residual = 0;
+            int changes = 0;
+            for(int j = 0; j < m.cols; j++) {
+                int cell = m.index(i, j);
+                int base = cell * 4;
+                boolean terminal = m.isBlocked(cell) || m.isGoal(cell);
                 
-                for(int a = 0; a < 4; a++) {
-                    if(s.isBlocked || s.isGoal) {
-                        s.q[a] = 0;
-                        continue;
+                for(int a = 0; a < 4; a++)
+                    q[base + a] = terminal ? 0 : model.q(base + a, values, gamma);
+                int policy = max(q, base);
+                grid.policy[cell] = (byte)policy;
+                if(updated != null) {
+                    updated[cell] = q[base + policy];
+                    residual = Math.max(residual, Math.abs(updated[cell] - values[cell]));
+                    if(updated[cell] != values[cell])
+                        changes++;
+                }
+            }
+            if(updated != null) {
+                rowResiduals[i] = residual;
+                rowChanges[i] = changes;
+            }
+        }
+    }
+
+    /**
+     * Updates the values of the states in the rows [from, to) in place, going through the band in
+     * square tiles so that the rows above and below a state are still in the cache when it is updated.
+     * Records the largest change of a value and the number of changed values of each row in rowResiduals and rowChanges.
+     * @param from
+     * @param to
+     * @param color only update the states with (x + y) % 2 == color, -1 to update all of them
+     * @param backward go through the tiles and the states in each tile in reverse order
+     */
+    private void gaussSeidel(int from, int to, int color, boolean backward) {
+        Maze m = grid.maze;
+        double[] values = grid.values;
+        if(color != 1) {
+            for(int i = from; i < to; i++) {
+                rowResiduals[i] = 0;
+                rowChanges[i] = 0;
+            }
+        }
+        int tileRows = (to - from + tile - 1) / tile;
+        int tileCols = (m.cols + tile - 1) / tile;
+        
+        for(int t = 0; t < tileRows * tileCols; t++) {
+            int k = backward ? tileRows * tileCols - 1 - t : t;
+            int i0 = from + (k / tileCols) * tile;
+            int j0 = (k % tileCols) * tile;
+            int i1 = Math.min(i0 + tile, to);
+            int j1 = Math.min(j0 + tile, m.cols);
+            
+            for(int di = 0; di < i1 - i0; di++) {
+                int i = backward ? i1 - 1 - di : i0 + di;
+                double residual = rowResiduals[i];
+                int changes = rowChanges[i];
+                for(int dj = 0; dj < j1 - j0; dj++) {
+                    int j = backward ? j1 - 1 - dj : j0 + dj;
+                    int cell = m.index(i, j);
+                    if((color >= 0 && ((i + j) & 1) != color) || m.isBlocked(cell) || m.isGoal(cell))
+                        continue; //Terminal states keep their value of 0.
+                    
+                    double best = getImmediateReward() + gamma * values[s_prime(i, j, 0)];
+                    for(int a = 1; a < 4; a++) {
+                        double q = getImmediateReward() + gamma * values[s_prime(i, j, a)];
+                        if(q > best)
+                            best = q;
+                    }
+                    if(best != values[cell]) {
+                        residual = Math.max(residual, Math.abs(best - values[cell]));
+                        changes++;
+                        values[cell] = best;
                     }
-                    s.q[a] = getImmediateReward() + ((gamma) * s_prime(i, j, a).value);
-                    //s_prime is the state that the agent reaches on going in the specified direction.
                 }
-                s.optimal_policy = max(s.q);
+                rowResiduals[i] = residual;
+                rowChanges[i] = changes;
             }
         }
     }
@@ -111,58 +597,37 @@ public class value_iteration {
      * For Value Iteration this value is known.
      * @return the reward
      */
-    private static double getImmediateReward() {
+    private double getImmediateReward() {
         return -1; //(-1) is the immediate reward because of the transition in this problem.
     }
 
     /**
      * Given the coordinates of a state and the direction to head in,
-     * this method returns the state that's "adjacent" to it.
+     * this method returns the index of the state that's "adjacent" to it.
      * "adjacent" -> Returns the current state if the computed state is blocked or
      * is outside the maze. Otherwise computes the next state in the direction specified by 'a'.
      * @param x
      * @param y
      * @param a
-     * @return next state
+     * @return index of the next state
      */
-    private static State s_prime(int x, int y, int a) {
-        State toReturn = maze[x][y];
-        
-        if(a == 0) { //Direction = West
-            if(y - 1 >= 0 && !maze[x][y-1].isBlocked) {
-                toReturn = maze[x][y-1];
-            }
-        }
-        else if(a == 1) { //Direction = North
-            if(x - 1 >= 0 && !maze[x-1][y].isBlocked) {
-                toReturn = maze[x-1][y];
-            }
-        }
-        else if(a == 2) { //Direction = East
-            if(y + 1 < maze[0].length && !maze[x][y+1].isBlocked) {
-                toReturn = maze[x][y+1];
-            }
-        }
-        else { //Direction = South
-            if(x + 1 < maze.length && !maze[x+1][y].isBlocked) {
-                toReturn = maze[x+1][y];
-            }
-        }
-        return toReturn;
+    private int s_prime(int x, int y, int a) {
+        return grid.maze.next(x, y, a);
     }
 
     /**
-     * Find the index with the maximum value in the array.
+     * Find the action with the maximum value among the four Q values starting at 'base'.
      * @param q
-     * @return index
+     * @param base index of the first Q value of the state
+     * @return action
      */
-    private static int max(double[] q) {
+    static int max(double[] q, int base) {
         double max = Integer.MIN_VALUE;
         int index = 0;
         
-        for(int i = 0; i < q.length; i++) {
-            if(q[i] > max) {
-                max = q[i];
+        for(int i = 0; i < 4; i++) {
+            if(q[base + i] > max) {
+                max = q[base + i];
                 index = i;
             }
         }